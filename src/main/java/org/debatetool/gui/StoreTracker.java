@@ -0,0 +1,240 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.gui.io.StructureChanges;
+import org.debatetool.gui.io.index.ComponentHashIndex;
+import org.debatetool.gui.io.search.CardSearch;
+import org.debatetool.io.iocontrollers.IOController;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which state of each component the backend already holds, so that saving something that has not changed
+ * since it was loaded or last stored does not go back to the backend. The hash alone is not enough for that, because
+ * things like the tags of a card or the contents of a block can change without changing it, so each state is
+ * summarized as a 64 bit fingerprint of everything that gets stored.
+ */
+public class StoreTracker {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final Object lock = new Object();
+    // created on first use, since that is when the hash length is known
+    private static ComponentHashIndex storedFingerprints = null;
+    // hash -> number of the last store queued for it, until that store is done
+    private static ComponentHashIndex pendingStores = null;
+    // hash -> value of events when a store of it was last queued or finished
+    private static ComponentHashIndex lastStoreEvents = null;
+    // counts stores being queued and finishing, see readStarted
+    private static long events = 0;
+    private static final AtomicLong skippedWrites = new AtomicLong();
+    private static final AtomicLong queuedWrites = new AtomicLong();
+
+    /**
+     * Queue a store of the component unless the backend is known to hold this exact state already
+     * @param component
+     * @param fingerprint fingerprint of the component's current state, see {@link #fingerprint(Card)} and
+     *                    {@link #fingerprint(String, List)}
+     * @return true if a write was queued
+     */
+    public static boolean storeIfChanged(HashIdentifiedSpeechComponent component, long fingerprint){
+        return storeIfChanged(component, fingerprint, null);
+    }
+
+    /**
+     * Queue a store of the component unless the backend is known to hold the state with this fingerprint already. The
+     * store runs later on the writer thread while holding the component's monitor, and update, if given, is run
+     * right before it to bring the component to that state. Editors hand their state over this way instead of
+     * changing the component themselves, so that a store never sees edits nobody saved. Since the monitor is held
+     * for a whole backend call, only background threads may take it, never the FX thread.
+     * @param component
+     * @param fingerprint fingerprint of the state to store, see {@link #fingerprint(Card)} and
+     *                    {@link #fingerprint(String, List)}
+     * @param update changes the component to that state, or null if it is in it already
+     * @return true if a write was queued
+     */
+    public static boolean storeIfChanged(HashIdentifiedSpeechComponent component, long fingerprint, Runnable update){
+        byte[] hash = component.getHash();
+        long store;
+        synchronized (lock){
+            ComponentHashIndex index = index(hash);
+            if (index.containsKey(hash) && index.get(hash, 0) == fingerprint){
+                skippedWrites.incrementAndGet();
+                return false;
+            }
+            // mark it right away, the queue guarantees this state is what ends up stored unless the write fails
+            index.put(hash, fingerprint);
+            store = ++events;
+            // a queued store of the same component that has not run yet is replaced by this one
+            pending(hash).put(hash, store);
+            lastEvents(hash).put(hash, store);
+        }
+        queuedWrites.incrementAndGet();
+        WriteBehindQueue.enqueue(WriteBehindQueue.key("component", hash), () -> {
+            try {
+                synchronized (component){
+                    if (update != null){
+                        update.run();
+                    }
+                    IOController.getIoController().getComponentIOManager().storeSpeechComponent(component);
+                }
+                StructureChanges.componentStored(component);
+                if (component instanceof Card){
+                    CardSearch.index((Card) component);
+                }
+            } catch (IOException | RuntimeException e) {
+                // e.g. driver errors, which are unchecked; either way the backend may not hold this state
+                forget(hash);
+                throw e;
+            } finally {
+                synchronized (lock){
+                    if (pending(hash).get(hash, 0) == store){
+                        pendingStores.remove(hash);
+                    }
+                    lastEvents(hash).put(hash, ++events);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Call right before reading components from the backend, and pass the result to {@link #markStored}
+     * @return
+     */
+    public static long readStarted(){
+        synchronized (lock){
+            return events;
+        }
+    }
+
+    /**
+     * Record that the component was read from the backend in the state with this fingerprint. Ignored if a store of
+     * the component is queued, or was queued or finished after the read started: the read may then have returned an
+     * older state than the one marked by the store, and marking it would make a later save of that older state look
+     * like it has nothing to store.
+     * @param hash
+     * @param fingerprint
+     * @param readStarted see {@link #readStarted()}
+     */
+    public static void markStored(byte[] hash, long fingerprint, long readStarted){
+        synchronized (lock){
+            if (pending(hash).containsKey(hash) || lastEvents(hash).get(hash, 0) > readStarted){
+                return;
+            }
+            index(hash).put(hash, fingerprint);
+        }
+    }
+
+    public static void forget(byte[] hash){
+        synchronized (lock){
+            if (storedFingerprints != null && storedFingerprints.getKeyBytes() == hash.length){
+                storedFingerprints.remove(hash);
+            }
+        }
+    }
+
+    private static ComponentHashIndex index(byte[] hash){
+        if (storedFingerprints == null || storedFingerprints.getKeyBytes() != hash.length){
+            // every component hash has the same length, so this only happens if the backend is swapped out
+            storedFingerprints = new ComponentHashIndex(hash.length);
+        }
+        return storedFingerprints;
+    }
+
+    private static ComponentHashIndex pending(byte[] hash){
+        if (pendingStores == null || pendingStores.getKeyBytes() != hash.length){
+            pendingStores = new ComponentHashIndex(hash.length);
+        }
+        return pendingStores;
+    }
+
+    private static ComponentHashIndex lastEvents(byte[] hash){
+        if (lastStoreEvents == null || lastStoreEvents.getKeyBytes() != hash.length){
+            lastStoreEvents = new ComponentHashIndex(hash.length);
+        }
+        return lastStoreEvents;
+    }
+
+    /**
+     * @return number of saves that were dropped because nothing had changed
+     */
+    public static long getSkippedWrites(){
+        return skippedWrites.get();
+    }
+
+    /**
+     * @return number of saves that were actually sent to the backend
+     */
+    public static long getQueuedWrites(){
+        return queuedWrites.get();
+    }
+
+    public static long fingerprint(Card card){
+        long fingerprint = update(FNV_OFFSET, card.getHash());
+        for (String tag:card.getTags()){
+            fingerprint = update(fingerprint, tag);
+        }
+        fingerprint = update(fingerprint, card.getTagIndex());
+        fingerprint = update(fingerprint, card.getPreferredHighlightIndex());
+        return update(fingerprint, card.getPreferredUnderlineIndex());
+    }
+
+    /**
+     * Fingerprint of a block or speech
+     * @param name
+     * @param contents
+     * @return
+     */
+    public static long fingerprint(String name, List<SpeechComponent> contents){
+        long fingerprint = update(FNV_OFFSET, name);
+        for (SpeechComponent component:contents){
+            if (component instanceof HashIdentifiedSpeechComponent){
+                fingerprint = update(fingerprint, ((HashIdentifiedSpeechComponent) component).getHash());
+            }else{
+                // analytics and the like are stored inline
+                fingerprint = update(fingerprint, component.getClass().getName());
+                fingerprint = update(fingerprint, component.getDisplayContent());
+            }
+        }
+        return fingerprint;
+    }
+
+    private static long update(long fingerprint, byte[] bytes){
+        for (byte b:bytes){
+            fingerprint ^= (b & 0xff);
+            fingerprint *= FNV_PRIME;
+        }
+        // separator so that ("ab","c") and ("a","bc") differ
+        fingerprint ^= 0xff;
+        return fingerprint * FNV_PRIME;
+    }
+
+    private static long update(long fingerprint, String string){
+        return update(fingerprint, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long update(long fingerprint, int value){
+        return update(fingerprint, ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+    }
+}
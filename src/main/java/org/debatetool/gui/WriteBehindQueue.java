@@ -0,0 +1,165 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Queue that lets the GUI hand off saves without waiting on the backend. Writes are keyed, and a write enqueued
+ * under a key that is still pending replaces the older one, so hopping back and forth between components only
+ * stores the latest state of each. A single background thread drains the queue in enqueue order. It takes up to
+ * {@link #MAX_DEQUEUE} writes off the queue at a time to hold the lock less often, but every write is still its own
+ * call to the backend, as the IO managers have no way to store several things in one call.
+ *
+ * A write that fails is dropped rather than retried. Failures are counted in {@link #failedWritesProperty()} so the
+ * GUI can show them, since the saving indicator alone would just go away as if the write had worked.
+ */
+public class WriteBehindQueue {
+    private static final int MAX_DEQUEUE = 32;
+    private static final LinkedHashMap<String, Write> pending = new LinkedHashMap<>();
+    private static final ReadOnlyIntegerWrapper pendingWrites = new ReadOnlyIntegerWrapper(0);
+    private static final ReadOnlyIntegerWrapper failedWrites = new ReadOnlyIntegerWrapper(0);
+    private static final ReadOnlyStringWrapper lastFailure = new ReadOnlyStringWrapper("");
+    private static int inFlight = 0;
+
+    static{
+        Thread writer = new Thread(WriteBehindQueue::drain, "debatetool-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public interface Write{
+        void write() throws IOException;
+    }
+
+    /**
+     * @param kind what sort of write this is, e.g. "component" or "highlight"
+     * @param hash hash of the component being written
+     * @return a key that coalesces repeated writes of the same kind to the same component
+     */
+    public static String key(String kind, byte[] hash){
+        return kind + ":" + Base64.getEncoder().encodeToString(hash);
+    }
+
+    public static void enqueue(String key, Write write){
+        synchronized (pending){
+            pending.put(key, write);
+            pending.notifyAll();
+        }
+        updatePendingWrites();
+    }
+
+    /**
+     * Block until the queue is empty and the last writes taken off it have finished. Used before reading back something that might
+     * still be waiting to be written, and before the IOController is closed.
+     */
+    public static void flush(){
+        synchronized (pending){
+            while (!pending.isEmpty() || inFlight>0){
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public static ReadOnlyIntegerProperty pendingWritesProperty(){
+        return pendingWrites.getReadOnlyProperty();
+    }
+
+    /**
+     * @return number of writes that failed since the last {@link #clearFailures()}, updated on the FX thread
+     */
+    public static ReadOnlyIntegerProperty failedWritesProperty(){
+        return failedWrites.getReadOnlyProperty();
+    }
+
+    /**
+     * @return message of the most recent failed write
+     */
+    public static ReadOnlyStringProperty lastFailureProperty(){
+        return lastFailure.getReadOnlyProperty();
+    }
+
+    /**
+     * Call on the FX thread once the user has seen the failures
+     */
+    public static void clearFailures(){
+        failedWrites.set(0);
+        lastFailure.set("");
+    }
+
+    private static void drain(){
+        while (true){
+            List<Write> batch = new ArrayList<>(MAX_DEQUEUE);
+            synchronized (pending){
+                while (pending.isEmpty()){
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                Iterator<Write> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size()<MAX_DEQUEUE){
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                inFlight = batch.size();
+            }
+            for (Write write:batch){
+                try {
+                    write.write();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    String message = e.getMessage() == null ? e.toString() : e.getMessage();
+                    Platform.runLater(() -> {
+                        failedWrites.set(failedWrites.get()+1);
+                        lastFailure.set(message);
+                    });
+                }
+            }
+            synchronized (pending){
+                inFlight = 0;
+                pending.notifyAll();
+            }
+            updatePendingWrites();
+        }
+    }
+
+    private static void updatePendingWrites(){
+        // read the count on the FX thread so that updates from the writer and from enqueue can't land out of order
+        Platform.runLater(() -> {
+            synchronized (pending){
+                pendingWrites.set(pending.size() + inFlight);
+            }
+        });
+    }
+}
@@ -18,16 +18,18 @@ package org.debatetool.gui.blockediting;
 import org.debatetool.core.*;
 import org.debatetool.core.html.HtmlEncoder;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.gui.cardediting.MainGui;
+import org.debatetool.gui.io.AsyncIO;
+import org.debatetool.gui.locationtree.Prefetcher;
 import org.debatetool.gui.speechtools.SpeechComponentCellFactory;
-import org.debatetool.io.iocontrollers.IOController;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -42,10 +44,11 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.scene.web.WebView;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class BlockEditor {
     @FXML protected
@@ -57,36 +60,48 @@ public class BlockEditor {
     @FXML protected
     GridPane viewerArea;
     Block block;
+    private CompletableFuture<Void> loading;
     final static String WEBVIEW_HTML = BlockEditor.class.getClassLoader().getResource("BlockViewer.html").toExternalForm();
 
     public void open(Block block) {
         // TODO try to not reload blocks when unnecessary
-        Task task = new Task() {
-            @Override
-            protected Object call() {
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
-                try {
+        if (loading != null){
+            // only the most recently opened block needs to finish loading
+            loading.cancel(true);
+        }
+        MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
+        List<SpeechComponent> contents = new ArrayList<>();
+        CompletableFuture<Void> load = AsyncIO.chain(AsyncIO.run(() -> {
+            // the block may refer to cards that are still waiting to be written
+            WriteBehindQueue.flush();
+            // a queued store may be changing the block, see StoreTracker.storeIfChanged
+            long readStarted = StoreTracker.readStarted();
+            String name;
+            synchronized (block){
+                if (!Prefetcher.awaitPrefetch(block)){
                     block.load();
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
-                return null;
+                name = block.getName();
+                for (int i = 0; i < block.size(); i++){
+                    contents.add(block.getComponent(i));
+                }
             }
-        };
-        Thread thread = new Thread(task);
-        thread.setDaemon(true);
-        thread.start();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-
-        this.block = block;
-        populateTree();
-        generateContents();
+            StoreTracker.markStored(block.getHash(), StoreTracker.fingerprint(name, contents), readStarted);
+        }), ignored -> AsyncIO.loadContents(contents));
+        loading = load;
+        load.whenCompleteAsync((result, exception) -> {
+            if (load != loading){
+                return;
+            }
+            loading = null;
+            MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
+            if (exception != null){
+                exception.printStackTrace();
+            }
+            this.block = block;
+            populateTree(contents);
+            generateContents();
+        }, Platform::runLater);
     }
 
     private void generateContents(){
@@ -167,7 +182,6 @@ public class BlockEditor {
             newAnalyticItem.setOnAction(new EventHandler<ActionEvent>() {
                 @Override
                 public void handle(ActionEvent actionEvent) {
-                    updateBlockContents();
                     TextInputDialog dialog = new TextInputDialog();
                     dialog.setTitle("Insert Analytic");
                     dialog.setHeaderText("Enter the analytic text");
@@ -175,8 +189,14 @@ public class BlockEditor {
                     if(!result.isPresent()){
                         return;
                     }
-                    block.insertComponentAbove(child, new Analytic(result.get()));
-                    refresh();
+                    // edit the tree rather than the block, which only changes when it is saved
+                    List<TreeItem> items = blockTreeView.getRoot().getChildren();
+                    for (int j = 0; j < items.size(); j++){
+                        if (items.get(j).getValue() == child){
+                            items.add(j, new TreeItem<>(new Analytic(result.get())));
+                            break;
+                        }
+                    }
                 }
             });
             localMenu.getItems().add(newAnalyticItem);
@@ -197,26 +217,47 @@ public class BlockEditor {
     }
 
     public void save() {
-        updateBlockContents();
-        try {
-            IOController.getIoController().getComponentIOManager().storeSpeechComponent(block);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (block == null){
+            // nothing has been opened yet
+            return;
         }
+        Block block = this.block;
+        List<SpeechComponent> contents = getContents();
+        // the block is only changed on the writer thread, right before it is stored
+        StoreTracker.storeIfChanged(block, StoreTracker.fingerprint(block.getName(), contents), () -> {
+            block.clearContents();
+            for (SpeechComponent component:contents){
+                block.addComponent(component);
+            }
+        });
     }
 
-    private void updateBlockContents(){
+    private List<SpeechComponent> getContents(){
         List<TreeItem> children = blockTreeView.getRoot().getChildren();
-        block.clearContents();
+        List<SpeechComponent> contents = new ArrayList<>(children.size());
         for (TreeItem child:children){
-            block.addComponent((SpeechComponent) child.getValue());
+            contents.add((SpeechComponent) child.getValue());
         }
+        return contents;
     }
 
     public Block getBlock() {
         return block;
     }
 
+    /**
+     * The block as the editor shows it, including changes that have not been saved, e.g. for exporting. This is a new
+     * block with a hash of its own and must not be stored; the opened block itself only changes when it is saved.
+     * @return
+     */
+    public Block getEditedBlock() {
+        Block edited = new Block(block.getName());
+        for (SpeechComponent component:getContents()){
+            edited.addComponent(component);
+        }
+        return edited;
+    }
+
     private class ContentLoader implements ChangeListener<Worker.State>{
         private final WebView contentView;
         private final SpeechComponent component;
@@ -264,9 +305,7 @@ public class BlockEditor {
                 if (keyEvent.getCode().equals(KeyCode.DELETE)){
                     TreeItem<SpeechComponent> item = (TreeItem<SpeechComponent>) blockTreeView.getSelectionModel().getSelectedItem();
                     if (item!=null){
-                        updateBlockContents();
-                        block.removeComponent(item.getValue());
-                        refresh();
+                        blockTreeView.getRoot().getChildren().remove(item);
                     }
                 }
             }
@@ -284,14 +323,15 @@ public class BlockEditor {
     }
 
     public void refresh(){
-        populateTree();
+        // the tree holds the block as it is being edited
+        populateTree(getContents());
         generateContents();
     }
 
-    private void populateTree(){
+    private void populateTree(List<SpeechComponent> contents){
         TreeItem<SpeechComponent> root = new TreeItem<>();
-        for (int i = 0; i < block.size(); i++){
-            root.getChildren().add(new TreeItem<>(block.getComponent(i)));
+        for (SpeechComponent component:contents){
+            root.getChildren().add(new TreeItem<>(component));
         }
         setRoot(root);
     }
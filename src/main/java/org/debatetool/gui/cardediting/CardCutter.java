@@ -23,6 +23,7 @@ import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Worker.State;
 import javafx.event.ActionEvent;
@@ -40,6 +41,7 @@ import org.debatetool.core.Card;
 import org.debatetool.core.CardOverlay;
 import org.debatetool.core.Cite;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.io.iocontrollers.IOController;
 
 import java.util.Arrays;
@@ -64,6 +66,11 @@ public class CardCutter extends CardViewer {
     private ObservableList<CardOverlay> underliningOverlayList = FXCollections.checkedObservableList(FXCollections.observableArrayList(), CardOverlay.class);
     private ObservableList<String> tagsList = FXCollections.checkedObservableList(FXCollections.observableArrayList(), String.class);
     private Card card = new Card(new Cite("","",""),"");
+    // whether the overlays of each type were edited since the card was opened or last saved
+    private boolean highlightingChanged = false;
+    private boolean underliningChanged = false;
+    // segments currently in the page, or null if the page has to be filled in from scratch
+    private List<String> shownSegments = null;
 
     public void init(){
         cardTextArea.setContextMenuEnabled(false);
@@ -77,6 +84,8 @@ public class CardCutter extends CardViewer {
         initHTML();
         highlightChoice.setItems(highlightingOverlayList);
         underlineChoice.setItems(underliningOverlayList);
+        highlightingOverlayList.addListener((ListChangeListener<CardOverlay>) change -> highlightingChanged = true);
+        underliningOverlayList.addListener((ListChangeListener<CardOverlay>) change -> underliningChanged = true);
         initOverlayChoiceListeners();
         initTagChoiceListeners();
         citeLabel.textProperty().bind(Bindings.concat(author, " ", date, " (", additionalInfo,")"));
@@ -138,6 +147,7 @@ public class CardCutter extends CardViewer {
                 if (o != null && t1!=null && t1.getClass().equals(String.class)){
                     CardOverlay overlay = (CardOverlay) o;
                     overlay.setName(t1.toString());
+                    underliningChanged = true;
                     ((SimpleObjectProperty) observableValue).setValue(o);
                 }
             }
@@ -156,6 +166,7 @@ public class CardCutter extends CardViewer {
                 if (o != null && t1!=null && t1.getClass().equals(String.class)){
                     CardOverlay overlay = (CardOverlay) o;
                     overlay.setName(t1.toString());
+                    highlightingChanged = true;
                     ((SimpleObjectProperty) observableValue).setValue(o);
                 }
             }
@@ -201,6 +212,7 @@ public class CardCutter extends CardViewer {
                         if (newState == State.SUCCEEDED) {
                             JSObject jsobj = (JSObject) cardTextArea.getEngine().executeScript("window");
                             jsobj.setMember("java", bridge);
+                            shownSegments = null;
                         }
                     }
                 });
@@ -221,6 +233,11 @@ public class CardCutter extends CardViewer {
     public class JavaBridge {
         public void updateSelection(int start, int end) {
             getActiveOverlay().updateOverlay(start,end,getActiveOverlayType());
+            if (underlineRadio.isSelected()){
+                underliningChanged = true;
+            }else{
+                highlightingChanged = true;
+            }
             applyOverlay();
         }
     }
@@ -232,7 +249,32 @@ public class CardCutter extends CardViewer {
         }
         CardOverlay combinedOverlay = CardOverlay.combineOverlays(getActiveUnderlineOverlay(),getActiveHighlightOverlay());
         cardTextArea.getEngine().executeScript("document.getElementById('style').sheet.cssRules[0].style.backgroundColor = '"+ SettingsHandler.getColorTag()+"';");
-        cardTextArea.getEngine().executeScript("document.getElementById('textarea').innerHTML = \""+ combinedOverlay.generateHTML(text)+"\";");
+        String html = combinedOverlay.generateHTML(text);
+        List<String> segments = HtmlSegments.split(html);
+        if (segments == null){
+            cardTextArea.getEngine().executeScript("document.getElementById('textarea').innerHTML = \""+ html+"\";");
+        }else if (shownSegments == null || !patchSegments(segments)){
+            cardTextArea.getEngine().executeScript("document.getElementById('textarea').innerHTML = \""+ HtmlSegments.join(segments, 0, segments.size())+"\";");
+        }
+        shownSegments = segments;
+    }
+
+    /**
+     * Replace only the segments that differ from what is shown, which for a selection is usually a handful of spans
+     * rather than the whole card
+     * @param segments
+     * @return false if the page did not hold the expected segments and has to be filled in from scratch
+     */
+    private boolean patchSegments(List<String> segments){
+        int prefix = HtmlSegments.commonPrefix(shownSegments, segments);
+        if (prefix == shownSegments.size() && prefix == segments.size()){
+            return true;
+        }
+        int suffix = HtmlSegments.commonSuffix(shownSegments, segments, prefix);
+        int removed = shownSegments.size() - prefix - suffix;
+        String added = HtmlSegments.join(segments, prefix, segments.size() - suffix);
+        Object result = cardTextArea.getEngine().executeScript("patchSegments(" + shownSegments.size() + ", " + prefix + ", " + removed + ", \"" + added + "\");");
+        return Boolean.TRUE.equals(result);
     }
 
     private byte getActiveOverlayType(){
@@ -310,6 +352,9 @@ public class CardCutter extends CardViewer {
             tagChoice.getSelectionModel().select(card.getTagIndex());
         }
         tagChoice.getItems().add(new TagChoiceAction());
+        // filling the lists above is not an edit
+        highlightingChanged = false;
+        underliningChanged = false;
     }
 
     @Override
@@ -320,8 +365,21 @@ public class CardCutter extends CardViewer {
         tagChoice.getEditor().commitValue();
         highlightChoice.getEditor().commitValue();
         underlineChoice.getEditor().commitValue();
-        IOController.getIoController().getOverlayIOManager().saveOverlays(getCard().getHash(), highlightingOverlayList, "Highlight");
-        IOController.getIoController().getOverlayIOManager().saveOverlays(getCard().getHash(), underliningOverlayList, "Underline");
+        byte[] hash = getCard().getHash();
+        // only rewrite the overlay types that were actually edited, and queue copies since the lists are reused for
+        // the next card
+        if (highlightingChanged){
+            ObservableList<CardOverlay> highlighting = FXCollections.observableArrayList(highlightingOverlayList);
+            WriteBehindQueue.enqueue(WriteBehindQueue.key("highlight", hash),
+                    () -> IOController.getIoController().getOverlayIOManager().saveOverlays(hash, highlighting, "Highlight"));
+            highlightingChanged = false;
+        }
+        if (underliningChanged){
+            ObservableList<CardOverlay> underlining = FXCollections.observableArrayList(underliningOverlayList);
+            WriteBehindQueue.enqueue(WriteBehindQueue.key("underline", hash),
+                    () -> IOController.getIoController().getOverlayIOManager().saveOverlays(hash, underlining, "Underline"));
+            underliningChanged = false;
+        }
         getCard().setTags(tagsList.subList(0, tagsList.size()-1));
         getCard().setTagIndex(tagChoice.getSelectionModel().getSelectedIndex());
         getCard().setPreferredHighlightIndex(highlightChoice.getSelectionModel().getSelectedIndex());
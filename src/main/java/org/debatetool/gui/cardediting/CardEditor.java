@@ -26,12 +26,15 @@ import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
 
+import java.util.Arrays;
+
 public class CardEditor extends CardViewer{
     @FXML protected BorderPane mainPane;
     @FXML protected TextField authorField;
     @FXML protected TextField dateField;
     @FXML protected TextField additionalField;
     @FXML protected TextArea cardTextArea;
+    private Card openedCard;
 
     public void init(){
         cardTextArea.textProperty().addListener(new ChangeListener<String>() {
@@ -46,11 +49,17 @@ public class CardEditor extends CardViewer{
 
     @Override
     protected Card getCard() {
-        return new Card(new Cite(authorField.getText(), dateField.getText(), additionalField.getText()), cardTextArea.getText());
+        Card card = new Card(new Cite(authorField.getText(), dateField.getText(), additionalField.getText()), cardTextArea.getText());
+        if (openedCard != null && Arrays.equals(openedCard.getHash(), card.getHash())){
+            // nothing was edited, so keep the tags and overlay choices that came with the card
+            return openedCard;
+        }
+        return card;
     }
 
     @Override
     protected void setCard(Card card) {
+        openedCard = card;
         Cite cite = card.getCite();
         authorField.setText(cite.getAuthor());
         dateField.setText(cite.getDate());
@@ -17,10 +17,13 @@ package org.debatetool.gui.cardediting;
 
 import org.debatetool.core.Card;
 import org.debatetool.core.Cite;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.WriteBehindQueue;
+import org.debatetool.gui.io.DirectoryPath;
+import org.debatetool.gui.io.StructureChanges;
 import org.debatetool.io.iocontrollers.IOController;
 import javafx.scene.layout.Pane;
 
-import java.io.IOException;
 import java.util.List;
 
 public abstract class CardViewer {
@@ -43,20 +46,21 @@ public abstract class CardViewer {
     }
 
     public void save(List<String> path) {
-        try {
-            Card card = getCard();
-            if (card == null){
-                return;
-            }
-            IOController.getIoController().getComponentIOManager().storeSpeechComponent(card);
-            if (path==null){
-                return;
-            }
-            IOController.getIoController().getStructureIOManager().addContent(path, card);
-        } catch (
-                IOException e) {
-            e.printStackTrace();
+        Card card = getCard();
+        if (card == null){
+            return;
         }
+        StoreTracker.storeIfChanged(card, StoreTracker.fingerprint(card));
+        if (path==null){
+            return;
+        }
+        // immutable, the caller may keep modifying its path list after the write is queued
+        DirectoryPath location = DirectoryPath.of(path);
+        WriteBehindQueue.enqueue(WriteBehindQueue.key("content:" + location.toPathString(), card.getHash()),
+                () -> {
+                    IOController.getIoController().getStructureIOManager().addContent(location, card);
+                    StructureChanges.contentAdded(location, card);
+                });
     }
 
     public abstract Pane getPane();
@@ -18,15 +18,14 @@ package org.debatetool.gui.cardediting;
 import javafx.stage.FileChooser;
 import org.debatetool.core.*;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.gui.blockediting.BlockEditor;
 import org.debatetool.gui.speechtools.DOCXExporter;
 import org.debatetool.gui.speechtools.SpeechEditor;
 import org.debatetool.gui.speechtools.SpeechViewer;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.concurrent.Task;
 import javafx.fxml.FXMLLoader;
-import javafx.scene.Cursor;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
 
@@ -116,12 +115,12 @@ public class ComponentViewer {
     public SpeechElementContainer getCurrentSpeechElementContainer(){
         if (currentViewMode==ViewType.SPEECH){
             if (editMode.get()){
-                return speechEditor.getSpeech();
+                return speechEditor.getEditedSpeech();
             }else{
                 return speechViewer.getSpeech();
             }
         }else if (currentViewMode==ViewType.BLOCK){
-            return blockEditor.getBlock();
+            return blockEditor.getEditedBlock();
         }else{
             throw new IllegalStateException("Speech Element Container not active");
         }
@@ -169,44 +168,32 @@ public class ComponentViewer {
         save(null);
     }
 
+    /**
+     * Save the currently open component. The viewers only gather their state here; the actual stores are handed to
+     * the {@link WriteBehindQueue} so that navigating away never waits on the backend.
+     * @param path location to add the component to, or null to only store it
+     */
     public void save(List<String> path){
-        Task task = new Task<>() {
-            @Override
-            protected Object call() throws Exception {
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
-                switch (currentViewMode) {
-                    case BLOCK:
-                        blockEditor.save();
-                        break;
-
-                    case CARD:
-                        if (editMode.get()) {
-                            cardCutter.save(path);
-                        } else {
-                            cardEditor.save(path);
-                        }
-                        break;
-
-                    case SPEECH:
-                        speechEditor.save();
-                        break;
-
-                    default:
-                        throw new IllegalStateException("Invalid View Mode");
+        switch (currentViewMode) {
+            case BLOCK:
+                blockEditor.save();
+                break;
+
+            case CARD:
+                if (editMode.get()) {
+                    cardCutter.save(path);
+                } else {
+                    cardEditor.save(path);
                 }
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
-                return null;
-            }
-        };
-        Thread thread = new Thread(task);
-        thread.setDaemon(true);
-        thread.start();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+                break;
 
+            case SPEECH:
+                speechEditor.save();
+                break;
+
+            default:
+                throw new IllegalStateException("Invalid View Mode");
+        }
     }
 
     public void clear() {
@@ -287,7 +274,7 @@ public class ComponentViewer {
             if (editMode.get()){
                 speechEditor.open((Speech) speechViewer.getSpeech());
             }else{
-                speechViewer.open(speechEditor.getSpeech());
+                speechViewer.open(speechEditor.getEditedSpeech());
             }
         }
         updateViewerPane();
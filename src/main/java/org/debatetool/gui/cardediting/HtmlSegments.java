@@ -0,0 +1,136 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.cardediting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the HTML of a card into top level pieces, each wrapped in its own span, so that the card cutter can replace
+ * only the pieces an overlay change touched instead of the whole card. A piece is either a complete top level
+ * element or a stretch of top level text, and long stretches of text are cut at spaces so that small edits stay small.
+ * Where text is cut depends only on its position in the text of the whole card, not on the markup before it, so moving
+ * the edge of a highlight leaves the cuts further on, and so the pieces after the change, exactly as they were.
+ */
+public class HtmlSegments {
+    private static final int TEXT_CHUNK = 200;
+    private static final String OPEN = "<span class='seg'>";
+    private static final String CLOSE = "</span>";
+
+    /**
+     * @param html
+     * @return the wrapped segments, or null if the tags are not balanced and the HTML has to be used as is
+     */
+    public static List<String> split(String html){
+        List<String> segments = new ArrayList<>();
+        int depth = 0;
+        int segmentStart = 0;
+        // number of text characters so far, tags not included
+        int textOffset = 0;
+        // whether text has been cut since the last multiple of TEXT_CHUNK was passed
+        boolean cutPending = false;
+        int i = 0;
+        while (i < html.length()){
+            char c = html.charAt(i);
+            if (c == '<'){
+                int end = html.indexOf('>', i);
+                if (end < 0){
+                    return null;
+                }
+                if (depth == 0 && i > segmentStart){
+                    // text before a top level element
+                    segments.add(OPEN + html.substring(segmentStart, i) + CLOSE);
+                    segmentStart = i;
+                }
+                if (html.charAt(i+1) == '/'){
+                    depth--;
+                    if (depth < 0){
+                        return null;
+                    }
+                }else if (!isVoid(html, i, end)){
+                    depth++;
+                }
+                i = end+1;
+                if (depth == 0){
+                    segments.add(OPEN + html.substring(segmentStart, i) + CLOSE);
+                    segmentStart = i;
+                }
+            }else{
+                if (textOffset > 0 && textOffset % TEXT_CHUNK == 0){
+                    cutPending = true;
+                }
+                textOffset++;
+                i++;
+                // the first space after each multiple of TEXT_CHUNK is a cut, used only if it is in top level text
+                if (c == ' ' && cutPending){
+                    cutPending = false;
+                    if (depth == 0){
+                        segments.add(OPEN + html.substring(segmentStart, i) + CLOSE);
+                        segmentStart = i;
+                    }
+                }
+            }
+        }
+        if (depth != 0){
+            return null;
+        }
+        if (segmentStart < html.length()){
+            segments.add(OPEN + html.substring(segmentStart) + CLOSE);
+        }
+        return segments;
+    }
+
+    public static String join(List<String> segments, int from, int to){
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < to; i++){
+            builder.append(segments.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return number of leading segments the two lists share
+     */
+    public static int commonPrefix(List<String> first, List<String> second){
+        int limit = Math.min(first.size(), second.size());
+        int i = 0;
+        while (i < limit && first.get(i).equals(second.get(i))){
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param prefix segments already known to be shared at the start, which are not counted again
+     * @return number of trailing segments the two lists share
+     */
+    public static int commonSuffix(List<String> first, List<String> second, int prefix){
+        int limit = Math.min(first.size(), second.size()) - prefix;
+        int i = 0;
+        while (i < limit && first.get(first.size()-1-i).equals(second.get(second.size()-1-i))){
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isVoid(String html, int start, int end){
+        if (html.charAt(end-1) == '/'){
+            return true;
+        }
+        String tag = html.substring(start+1, end).trim().split("[\\s/]", 2)[0].toLowerCase();
+        return tag.equals("br") || tag.equals("hr") || tag.equals("img") || tag.equals("wbr");
+    }
+}
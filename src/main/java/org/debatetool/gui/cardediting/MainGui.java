@@ -30,7 +30,6 @@ import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
@@ -53,8 +52,15 @@ import org.apache.logging.log4j.LogManager;
 import org.debatetool.core.*;
 import org.debatetool.gui.LoginDialog;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.WriteBehindQueue;
+import org.debatetool.gui.io.AsyncIO;
+import org.debatetool.gui.io.DirectoryPath;
+import org.debatetool.gui.io.StructureChanges;
+import org.debatetool.gui.io.search.CardSearch;
 import org.debatetool.gui.locationtree.LocationTreeItem;
 import org.debatetool.gui.locationtree.LocationTreeItemContent;
+import org.debatetool.gui.locationtree.LocationTreeUpdater;
+import org.debatetool.gui.locationtree.Prefetcher;
 import org.debatetool.gui.speechtools.FullscreenView;
 import org.debatetool.gui.speechtools.SpeechComponentCellFactory;
 import org.debatetool.gui.timer.DebateTimer;
@@ -74,6 +80,7 @@ import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 public class MainGui {
     @FXML private MenuItem showFullscreenMenuItem;
@@ -89,7 +96,12 @@ public class MainGui {
     @FXML private Menu scriptsMenu;
     @FXML private BorderPane viewerPane;
     @FXML private Label currentPathLabel;
+    @FXML private Label pendingWritesLabel;
+    @FXML private Label failedWritesLabel;
     @FXML private TreeTableView directoryView;
+    @FXML private TextField searchField;
+    @FXML private Label searchScopeLabel;
+    @FXML private ListView<Card> searchResultsView;
     private LocationTreeItem currentNode;
     private StringProperty currentPathString = new SimpleStringProperty("");
     private ComponentViewer componentViewer;
@@ -98,7 +110,10 @@ public class MainGui {
     private ObservableList<HashIdentifiedSpeechComponent> editHistory = FXCollections.observableArrayList();
     private SimpleIntegerProperty editHistoryIndex = new SimpleIntegerProperty(this, "editHistoryIndex", -1);
     private SimpleObjectProperty<DebateTimer> timerProperty = new SimpleObjectProperty<>(null);
+    private long openRequest = 0;
+    private long searchRequest = 0;
 
+    private static final int MAX_SEARCH_RESULTS = 100;
     private static MainGui activeGUI;
 
     public static MainGui getActiveGUI() {
@@ -189,6 +204,24 @@ public class MainGui {
             }
         });
 
+        searchField.textProperty().addListener((observableValue, oldV, newV) -> search(newV));
+        searchScopeLabel.managedProperty().bind(searchScopeLabel.visibleProperty());
+        searchResultsView.setCellFactory(listView -> new ListCell<Card>(){
+            @Override
+            protected void updateItem(Card card, boolean empty) {
+                super.updateItem(card, empty);
+                setText(empty || card == null ? null : card.getLabel());
+            }
+        });
+        searchResultsView.setOnMouseClicked(mouseEvent -> {
+            if(mouseEvent.getClickCount() == 2) {
+                Card card = searchResultsView.getSelectionModel().getSelectedItem();
+                if (card != null){
+                    open(card);
+                }
+            }
+        });
+
         componentViewer.bindEditMode(editToggle.selectedProperty());
         componentViewer.bindPreventContainerActions(exportDocxMenuItem.disableProperty());
         componentViewer.bindPreventContainerActions(showFullscreenMenuItem.disableProperty());
@@ -200,6 +233,41 @@ public class MainGui {
         });
 
         timerButton.disableProperty().bind(timerProperty.isNotNull());
+
+        pendingWritesLabel.textProperty().bind(Bindings.format("Saving (%d pending)...", WriteBehindQueue.pendingWritesProperty()));
+        pendingWritesLabel.visibleProperty().bind(WriteBehindQueue.pendingWritesProperty().greaterThan(0));
+        // a failed write leaves the pending count like a successful one, so keep it on screen until it is dismissed
+        failedWritesLabel.textProperty().bind(Bindings.format("%d failed to save (click to dismiss)", WriteBehindQueue.failedWritesProperty()));
+        failedWritesLabel.visibleProperty().bind(WriteBehindQueue.failedWritesProperty().greaterThan(0));
+        Tooltip failureTooltip = new Tooltip();
+        failureTooltip.textProperty().bind(WriteBehindQueue.lastFailureProperty());
+        failedWritesLabel.setTooltip(failureTooltip);
+        failedWritesLabel.setOnMouseClicked(event -> WriteBehindQueue.clearFailures());
+    }
+
+    private void search(String query){
+        long request = ++searchRequest;
+        if (query.trim().isEmpty()){
+            searchResultsView.getItems().clear();
+            searchResultsView.setVisible(false);
+            searchScopeLabel.setVisible(false);
+            return;
+        }
+        // only the cards this client has loaded are indexed, so say how many were searched
+        AsyncIO.submit(() -> CardSearch.search(query, MAX_SEARCH_RESULTS)).whenCompleteAsync((results, exception) -> {
+            if (request != searchRequest){
+                // the query was changed while this one ran
+                return;
+            }
+            if (exception != null){
+                exception.printStackTrace();
+                return;
+            }
+            searchResultsView.getItems().setAll(results);
+            searchResultsView.setVisible(true);
+            searchScopeLabel.setText(String.format("%d results from %d loaded cards", results.size(), CardSearch.size()));
+            searchScopeLabel.setVisible(true);
+        }, Platform::runLater);
     }
 
     private void attemptLogin() throws IOException {
@@ -221,33 +289,44 @@ public class MainGui {
     }
 
     private void open(HashIdentifiedSpeechComponent component, boolean track){
-        DBLockResponse response = IOController.getIoController().getDBLock().tryLock(component.getHash());
-        if (response.getResultType()!=DBLockResponse.ResultType.SUCCESS){
-            Alert alert = new Alert(Alert.AlertType.ERROR, "That file is already being edited by " + response.getMessage()+". If you think that this message is a mistake, the lock should time out (default - 10 minutes).");
-            alert.showAndWait();
-            return;
-        }
+        long request = ++openRequest;
+        // also releases the other locks once this one is taken
         // TODO change this to onyl the currnet document
-        IOController.getIoController().getDBLock().unlockAllExcept(component.getHash());
-
-        componentViewer.open(component);
-        openedNode = currentNode;
-        openedComponent = component;
-        viewerLabel.setText(component.getLabel());
-        if (track) {
-            if (editHistoryIndex.get() < editHistory.size() - 1) {
-                editHistory.remove(editHistoryIndex.get(), editHistory.size() - 1);
+        AsyncIO.switchLock(component.getHash()).whenCompleteAsync((response, exception) -> {
+            if (request != openRequest){
+                // something else was opened while waiting on the lock
+                return;
             }
-            editHistoryIndex.set(editHistoryIndex.get()+1);
-            editHistory.add(component);
-        }
+            if (exception != null){
+                exception.printStackTrace();
+                return;
+            }
+            if (response.getResultType()!=DBLockResponse.ResultType.SUCCESS){
+                Alert alert = new Alert(Alert.AlertType.ERROR, "That file is already being edited by " + response.getMessage()+". If you think that this message is a mistake, the lock should time out (default - 10 minutes).");
+                alert.showAndWait();
+                return;
+            }
+            componentViewer.open(component);
+            openedNode = currentNode;
+            openedComponent = component;
+            viewerLabel.setText(component.getLabel());
+            if (track) {
+                if (editHistoryIndex.get() < editHistory.size() - 1) {
+                    editHistory.remove(editHistoryIndex.get(), editHistory.size() - 1);
+                }
+                editHistoryIndex.set(editHistoryIndex.get()+1);
+                editHistory.add(component);
+            }
+        }, Platform::runLater);
     }
     private void open(HashIdentifiedSpeechComponent component){
         open(component,true);
     }
 
     private void populateDirectoryView(){
-        List<String> rootFolders = IOController.getIoController().getStructureIOManager().getRoot();
+        // the root item lists itself like any other directory, so the top-level names are not needed here; asking for
+        // them still tells the user right away if the backend can't be reached
+        AsyncIO.getRoot().whenCompleteAsync(reportFailure("Could not read the directory tree"), Platform::runLater);
         LocationTreeItem root = new LocationTreeItem(null){
             public boolean isLeaf(){
                 return false;
@@ -281,6 +360,10 @@ public class MainGui {
                         if(empty || content==null) {
                             setText(null);
                             setGraphic(null);
+                            if (previousItem != null){
+                                Prefetcher.cancel(previousItem);
+                                previousItem = null;
+                            }
                         } else {
                             if (getTreeTableRow().getTreeItem()==null || getTreeTableRow().getTreeItem().getValue() == null){
                                 // there is an empty cell added if the root is otherwise empty -- ignore it
@@ -293,7 +376,12 @@ public class MainGui {
                                 previousLoadingListener = null;
                             }
                             LocationTreeItem item = (LocationTreeItem) getTreeTableRow().getTreeItem();
+                            if (previousItem != null && previousItem != item){
+                                // the cell is being reused, so the old row scrolled out of view
+                                Prefetcher.cancel(previousItem);
+                            }
                             previousItem = item;
+                            Prefetcher.request(item);
                             setText(content);
                             if (!item.isLeaf()) {
                                 if (item.isExpanded()) {
@@ -362,19 +450,14 @@ public class MainGui {
                                 if (name == null){
                                     return;
                                 }
-                                // if the list was "empty", it will have one null element we want to remove
-                                currentNode.getChildren().removeIf(
-                                        locationTreeItemContentTreeItem -> locationTreeItemContentTreeItem.getValue()==null);
                                 if (cell.isEmpty()){
-
                                     // if we are on an empty cell, create a top-level directory
-                                    root.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(name)));
-                                    effectivePath = new ArrayList<>();
-                                }else{;
-                                    currentNode.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(name)));
+                                    effectivePath = DirectoryPath.ROOT;
+                                }else{
                                     effectivePath = getCurrentNode().getPath();
                                 }
-                                IOController.getIoController().getStructureIOManager().addChild(effectivePath, name);
+                                // the tree is updated from the change feed once the directory exists
+                                AsyncIO.addChild(effectivePath, name).whenCompleteAsync(reportFailure("Could not create \"" + name + "\""), Platform::runLater);
                             }
                         });
                         localMenu.getItems().add(newDirectoryItem);
@@ -389,17 +472,10 @@ public class MainGui {
                                 if (name == null){
                                     return;
                                 }
-                                // if the list was "empty", it will have one null element we want to remove
-                                currentNode.getChildren().removeIf(
-                                        locationTreeItemContentTreeItem -> locationTreeItemContentTreeItem.getValue()==null);
                                 Block newBlock = new Block(name);
-                                currentNode.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(newBlock)));
-                                try {
-                                    IOController.getIoController().getStructureIOManager().addContent(getCurrentNode().getPath(), newBlock);
-                                    IOController.getIoController().getComponentIOManager().storeSpeechComponent(newBlock);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
+                                DirectoryPath path = getCurrentNode().getPath();
+                                // the tree is updated from the change feed once the block is in the directory
+                                AsyncIO.addNewContent(path, newBlock).whenCompleteAsync(reportFailure("Could not create \"" + name + "\""), Platform::runLater);
                             }
                         });
                         localMenu.getItems().add(newBlockItem);
@@ -414,17 +490,10 @@ public class MainGui {
                                 if (name == null){
                                     return;
                                 }
-                                // if the list was "empty", it will have one null element we want to remove
-                                currentNode.getChildren().removeIf(
-                                        locationTreeItemContentTreeItem -> locationTreeItemContentTreeItem.getValue()==null);
                                 Speech newSpeech = new Speech(name);
-                                currentNode.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(newSpeech)));
-                                try {
-                                    IOController.getIoController().getStructureIOManager().addContent(getCurrentNode().getPath(), newSpeech);
-                                    IOController.getIoController().getComponentIOManager().storeSpeechComponent(newSpeech);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
+                                DirectoryPath path = getCurrentNode().getPath();
+                                // the tree is updated from the change feed once the speech is in the directory
+                                AsyncIO.addNewContent(path, newSpeech).whenCompleteAsync(reportFailure("Could not create \"" + name + "\""), Platform::runLater);
                             }
                         });
                         localMenu.getItems().add(newSpeechItem);
@@ -435,22 +504,8 @@ public class MainGui {
                                 removeItem.setOnAction(new EventHandler<ActionEvent>() {
                                     @Override
                                     public void handle(ActionEvent actionEvent) {
-                                        Task task = new Task<>() {
-                                            @Override
-                                            protected Object call() throws Exception {
-                                                IOController.getIoController().getStructureIOManager().removeNode(currentNode.getPath());
-                                                return null;
-                                            }
-                                        };
-                                        new Thread(task).start();
-                                        Platform.runLater(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                localMenu.hide();
-                                                // force update current tree
-                                                cell.getTreeTableRow().getTreeItem().getParent().getChildren().remove(cell.getTreeTableRow().getTreeItem());
-                                            }
-                                        });
+                                        localMenu.hide();
+                                        deleteDirectory((LocationTreeItem) cell.getTreeTableRow().getTreeItem());
                                     }
                                 });
                                 localMenu.getItems().add(removeItem);
@@ -466,11 +521,16 @@ public class MainGui {
                                             return;
                                         }
 
-                                        List<String> path = currentNode.getPath();
-                                        path.remove(path.size() - 1);
-                                        IOController.getIoController().getStructureIOManager().renameDirectory(path, getCurrentNode().getValue().getDisplay(), name);
-                                        getCurrentNode().getValue().setDisplay(name);
-                                        currentPathString.set(String.join("/", currentNode.getPath()));
+                                        DirectoryPath path = currentNode.getPath().getParent();
+                                        String oldName = getCurrentNode().getValue().getDisplay();
+                                        // the tree is updated from the change feed once the rename went through
+                                        AsyncIO.renameDirectory(path, oldName, name).whenCompleteAsync((result, exception) -> {
+                                            if (exception != null){
+                                                reportFailure("Could not rename \"" + oldName + "\"").accept(result, exception);
+                                            }else if (currentNode != null){
+                                                currentPathString.set(currentNode.getPath().toPathString());
+                                            }
+                                        }, Platform::runLater);
 
                                     }
                                 });
@@ -481,9 +541,10 @@ public class MainGui {
                                     @Override
                                     public void handle(ActionEvent actionEvent) {
                                         localMenu.hide();
-                                        IOController.getIoController().getStructureIOManager().removeContent(currentNode.getPath(), cell.getTreeTableRow().getTreeItem().getValue().getSpeechComponent().getHash());
-                                        // force update current tree
-                                        cell.getTreeTableRow().getTreeItem().getParent().getChildren().remove(cell.getTreeTableRow().getTreeItem());
+                                        LocationTreeItemContent content = cell.getTreeTableRow().getTreeItem().getValue();
+                                        // the tree is updated from the change feed once the removal went through
+                                        AsyncIO.removeContent(currentNode.getPath(), content.getSpeechComponent().getHash())
+                                                .whenCompleteAsync(reportFailure("Could not remove \"" + content.getDisplay() + "\""), Platform::runLater);
                                     }
                                 });
                                 localMenu.getItems().add(removeItem);
@@ -503,15 +564,9 @@ public class MainGui {
                                         }else{
                                             name = baseNameResult.get();
                                         }
-                                        byte[] oldHash = cellBlock.getHash();
-                                        cellBlock.setName(name);
-                                        try {
-                                            IOController.getIoController().getComponentIOManager().storeSpeechComponent(cellBlock);
-                                        } catch (IOException e) {
-                                            e.printStackTrace();
-                                        }
-                                        // force change the text of the cell
-                                        cell.setText(name);
+                                        // renamed on the writer thread, see StoreTracker.storeIfChanged; the cell is relabeled from the
+                                        // change feed once the block is stored
+                                        AsyncIO.storeSpeechComponent(cellBlock, () -> cellBlock.setName(name)).whenCompleteAsync(reportFailure("Could not rename the block"), Platform::runLater);
                                         componentViewer.open(cellBlock);
                                     }
                                 });
@@ -532,14 +587,9 @@ public class MainGui {
                                         }else{
                                             name = baseNameResult.get();
                                         }
-                                        cellSpeech.setName(name);
-                                        try {
-                                            IOController.getIoController().getComponentIOManager().storeSpeechComponent(cellSpeech);
-                                        } catch (IOException e) {
-                                            e.printStackTrace();
-                                        }
-                                        // force change the text of the cell
-                                        cell.setText(name);
+                                        // renamed on the writer thread, see StoreTracker.storeIfChanged; the cell is relabeled from the
+                                        // change feed once the speech is stored
+                                        AsyncIO.storeSpeechComponent(cellSpeech, () -> cellSpeech.setName(name)).whenCompleteAsync(reportFailure("Could not rename the speech"), Platform::runLater);
                                         componentViewer.open(cellSpeech);
                                     }
                                 });
@@ -586,6 +636,7 @@ public class MainGui {
         directoryView.setColumnResizePolicy(TreeTableView.CONSTRAINED_RESIZE_POLICY);
         directoryView.setShowRoot(false);
         directoryView.setRoot(root);
+        StructureChanges.addListener(new LocationTreeUpdater(root));
         directoryView.setSortPolicy(new Callback<TreeTableView<LocationTreeItemContent>, Boolean>() {
             @Override
             public Boolean call(TreeTableView treeTableView) {
@@ -640,18 +691,60 @@ public class MainGui {
         currentNode = root;
     }
 
+    /**
+     * @param action what was being done, e.g. "Could not rename \"Aff\""
+     * @return a completion handler that tells the user if the change did not go through, to be run on the FX thread
+     */
+    private static <T> BiConsumer<T, Throwable> reportFailure(String action){
+        return (result, exception) -> {
+            if (exception != null){
+                exception.printStackTrace();
+                new Alert(Alert.AlertType.ERROR, action + ": " + exception.getMessage(), ButtonType.OK).showAndWait();
+            }
+        };
+    }
+
+    /**
+     * Delete a directory and everything in it. The item stays in the tree, showing a spinner, until the backend is
+     * done; it is then removed through the {@link StructureChanges} feed. The removal is queued behind any saves into
+     * the directory that are still pending, so none of them can recreate it. Afterwards the parent is listed again to
+     * check that the directory is really gone. A directory that is being listed can still be deleted.
+     * @param directory
+     */
+    private void deleteDirectory(LocationTreeItem directory){
+        if (directory.isDeleting()){
+            return;
+        }
+        DirectoryPath path = directory.getPath();
+        DirectoryPath parentPath = path.getParent();
+        String name = path.getName();
+        // the item is taken out of its parent as soon as the removal goes through; until then it only shows the
+        // spinner, as there is neither progress to report nor a way to take the delete back
+        LocationTreeItem parent = (LocationTreeItem) directory.getParent();
+        directory.setDeleting(true);
+        AsyncIO.removeNode(path).thenCompose(ignored -> AsyncIO.getChildren(parentPath)).whenCompleteAsync((remaining, exception) -> {
+            directory.setDeleting(false);
+            if (exception != null){
+                exception.printStackTrace();
+                new Alert(Alert.AlertType.ERROR, "Could not delete \"" + name + "\": " + exception.getMessage(), ButtonType.OK).showAndWait();
+            }else if (remaining.contains(name)){
+                new Alert(Alert.AlertType.WARNING, "\"" + name + "\" was not completely deleted. The directory has been reloaded to show what is left.", ButtonType.OK).showAndWait();
+            }else{
+                return;
+            }
+            // the tree may not match the backend anymore
+            parent.reloadChildren();
+        }, Platform::runLater);
+    }
+
     @FXML
     public void save() {
         if (currentNode == null){
             currentPathString.set("Please select a location");
             return;
         }
+        // the tree is patched through the StructureChanges feed as the queued writes land
         componentViewer.save(currentNode.getPath());
-        currentNode.reloadChildren();
-        // TODO don't need to do a full reload here
-        if (openedNode!=null){
-            openedNode.reloadChildren();
-        }
     }
 
     public void newCardAction(){
@@ -672,10 +765,11 @@ public class MainGui {
 
     public void setCurrentNode(LocationTreeItem currentNode) {
         this.currentNode = currentNode;
-        this.currentPathString.set(String.join("/",currentNode.getPath()));
+        this.currentPathString.set(currentNode.getPath().toPathString());
     }
 
     public void exit() throws IOException {
+        WriteBehindQueue.flush();
         IOController.getIoController().close();
         // need some handle to the stage, so the viewerPane chosen arbitrarily
         ((Stage)viewerPane.getScene().getWindow()).close();
@@ -15,6 +15,7 @@
 
 package org.debatetool.gui.cardediting;
 
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.io.iocontrollers.IOController;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -46,6 +47,7 @@ public class MainGuiLauncher extends Application {
                         @Override
                         public void handle(WindowEvent windowEvent) {
                             try {
+                                WriteBehindQueue.flush();
                                 IOController.getIoController().close();
                             } catch (IOException e) {
                                 e.printStackTrace();
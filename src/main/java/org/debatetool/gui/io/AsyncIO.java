@@ -0,0 +1,509 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io;
+
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.Speech;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.WriteBehindQueue;
+import org.debatetool.gui.io.search.CardSearch;
+import org.debatetool.io.accounts.DBLockResponse;
+import org.debatetool.io.iocontrollers.IOController;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Non-blocking versions of the calls the GUI makes on the IO managers of the active {@link IOController}. Everything
+ * runs on a small pool of named daemon threads, so no more than {@link #IO_THREADS} requests hit the backend at
+ * once. Cancelling a returned future drops the call if it has not started yet and interrupts it otherwise. Stores and
+ * changes to the directory structure are the exception: they are sent in order through the {@link WriteBehindQueue}
+ * and cannot be cancelled.
+ */
+public class AsyncIO {
+    public static final int IO_THREADS = 4;
+    public static final int MAX_SUBTREE_DIRECTORIES = 32;
+    private static final ExecutorService executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("debatetool-io"));
+    // lock calls have to reach the backend in the order they were made, see switchLock
+    private static final ExecutorService lockExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("debatetool-lock"));
+    private static final ExecutorService preloadExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("debatetool-preload", Thread.MIN_PRIORITY));
+    // these writes are never coalesced, so each gets its own key in the write-behind queue
+    private static final AtomicLong queuedWrites = new AtomicLong();
+
+    public interface IOCall<T>{
+        T call() throws Exception;
+    }
+
+    public interface IORunnable{
+        void run() throws Exception;
+    }
+
+    public static <T> CompletableFuture<T> submit(IOCall<T> call){
+        return submit(executor, call);
+    }
+
+    private static <T> CompletableFuture<T> submit(ExecutorService executor, IOCall<T> call){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            if (future.isDone()){
+                // cancelled while waiting in the queue
+                return;
+            }
+            try {
+                future.complete(call.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((result, exception) -> {
+            if (future.isCancelled()){
+                task.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    public static CompletableFuture<Void> run(IORunnable runnable){
+        return submit(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Like first.thenCompose(next), except that cancelling the returned future also cancels first and the future next
+     * returned, so that the calls behind them are dropped or interrupted too instead of running on unseen.
+     * @param first
+     * @param next
+     * @return
+     */
+    public static <T, U> CompletableFuture<U> chain(CompletableFuture<T> first, Function<? super T, CompletableFuture<U>> next){
+        CompletableFuture<U> result = new CompletableFuture<>();
+        AtomicReference<Future<?>> current = new AtomicReference<>(first);
+        first.whenComplete((value, exception) -> {
+            if (exception != null){
+                result.completeExceptionally(exception);
+                return;
+            }
+            if (result.isDone()){
+                return;
+            }
+            CompletableFuture<U> second;
+            try {
+                second = next.apply(value);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            current.set(second);
+            if (result.isCancelled()){
+                // cancelled while next was running
+                second.cancel(true);
+            }
+            second.whenComplete((secondValue, secondException) -> {
+                if (secondException != null){
+                    result.completeExceptionally(secondException);
+                }else{
+                    result.complete(secondValue);
+                }
+            });
+        });
+        result.whenComplete((value, exception) -> {
+            if (result.isCancelled()){
+                current.get().cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public static CompletableFuture<Void> load(SpeechComponent component){
+        return run(component::load);
+    }
+
+    /**
+     * Load everything a block or speech shows: blocks inside a speech that are not loaded yet, and the cards with their
+     * overlays. The loads are sent side by side instead of one at a time as each card is drawn. Cancelling the returned
+     * future cancels every load that has not finished.
+     * @param container a block or speech, which should already be loaded itself
+     * @return
+     */
+    public static CompletableFuture<Void> loadContents(SpeechComponent container){
+        List<SpeechComponent> contents = new ArrayList<>();
+        if (container instanceof Block){
+            Block block = (Block) container;
+            for (int i = 0; i < block.size(); i++){
+                contents.add(block.getComponent(i));
+            }
+        }else if (container instanceof Speech){
+            Speech speech = (Speech) container;
+            for (int i = 0; i < speech.size(); i++){
+                contents.add(speech.getComponent(i));
+            }
+        }
+        return loadContents(contents);
+    }
+
+    /**
+     * Like {@link #loadContents(SpeechComponent)}, for contents that were already read out of their block or speech
+     * @param contents
+     * @return
+     */
+    public static CompletableFuture<Void> loadContents(List<SpeechComponent> contents){
+        List<CompletableFuture<Void>> loads = new ArrayList<>(contents.size());
+        for (SpeechComponent component:contents){
+            loads.add(loadContent(component));
+        }
+        return all(loads);
+    }
+
+    /**
+     * Like CompletableFuture.allOf, except that cancelling the returned future cancels every future that has not
+     * finished yet
+     * @param futures
+     * @return
+     */
+    private static CompletableFuture<Void> all(List<? extends CompletableFuture<?>> futures){
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        all.whenComplete((result, exception) -> {
+            if (all.isCancelled()){
+                for (CompletableFuture<?> future:futures){
+                    future.cancel(true);
+                }
+            }
+        });
+        return all;
+    }
+
+    private static CompletableFuture<Void> loadContent(SpeechComponent component){
+        if (component instanceof Card){
+            Card card = (Card) component;
+            return run(() -> {
+                if (!card.isLoaded()){
+                    card.load();
+                }
+                card.getHighlighting();
+                card.getUnderlining();
+                CardSearch.index(card);
+            });
+        }else if (component instanceof Block){
+            if (component.isLoaded()){
+                return loadContents(component);
+            }
+            return chain(load(component), ignored -> loadContents(component));
+        }
+        // analytics and the like are stored inline
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Store the component in order with the queued saves and structure changes, e.g. right before it is added to a
+     * directory
+     * @param component
+     * @return
+     */
+    public static CompletableFuture<Void> storeSpeechComponent(HashIdentifiedSpeechComponent component){
+        return storeSpeechComponent(component, null);
+    }
+
+    /**
+     * Like {@link #storeSpeechComponent(HashIdentifiedSpeechComponent)}, with update run on the writer thread right
+     * before the store while holding the component's monitor, e.g. to rename it. See StoreTracker.storeIfChanged for
+     * why components are changed this way.
+     * @param component
+     * @param update
+     * @return
+     */
+    public static CompletableFuture<Void> storeSpeechComponent(HashIdentifiedSpeechComponent component, Runnable update){
+        return queue(() -> {
+            synchronized (component){
+                if (update != null){
+                    update.run();
+                }
+                IOController.getIoController().getComponentIOManager().storeSpeechComponent(component);
+            }
+            StructureChanges.componentStored(component);
+            if (component instanceof Card){
+                CardSearch.index((Card) component);
+            }
+        });
+    }
+
+    public static CompletableFuture<List<String>> getRoot(){
+        return submit(() -> IOController.getIoController().getStructureIOManager().getRoot());
+    }
+
+    public static CompletableFuture<List<String>> getChildren(List<String> path){
+        return submit(() -> IOController.getIoController().getStructureIOManager().getChildren(path));
+    }
+
+    public static CompletableFuture<List<HashIdentifiedSpeechComponent>> getContent(List<String> path){
+        return submit(() -> IOController.getIoController().getStructureIOManager().getContent(path));
+    }
+
+    /**
+     * Subdirectories and contents of a directory. This is still two calls to the backend, getChildren and getContent,
+     * each resolving the path on its own; they are only sent side by side rather than one after the other, so the
+     * wait is about that of the slower one. Cancelling the returned future cancels both.
+     * @param path
+     * @return
+     */
+    public static CompletableFuture<DirectoryListing> list(List<String> path){
+        return list(executor, path);
+    }
+
+    private static CompletableFuture<DirectoryListing> list(ExecutorService executor, List<String> path){
+        long readStarted = StoreTracker.readStarted();
+        CompletableFuture<List<String>> children = submit(executor, () -> IOController.getIoController().getStructureIOManager().getChildren(path));
+        CompletableFuture<List<HashIdentifiedSpeechComponent>> contents = submit(executor, () -> IOController.getIoController().getStructureIOManager().getContent(path));
+        CompletableFuture<DirectoryListing> listing = children.thenCombine(contents, (childNames, components) -> {
+            CardSearch.index(components);
+            return new DirectoryListing(path, childNames, components, readStarted);
+        });
+        listing.whenComplete((result, exception) -> {
+            if (listing.isCancelled()){
+                children.cancel(true);
+                contents.cancel(true);
+            }
+        });
+        return listing;
+    }
+
+    /**
+     * Listings of several directories at once, e.g. every expanded directory of the tree
+     * @param paths
+     * @return the listings, in the same order as paths
+     */
+    public static CompletableFuture<List<DirectoryListing>> listAll(List<List<String>> paths){
+        List<CompletableFuture<DirectoryListing>> listings = new ArrayList<>(paths.size());
+        for (List<String> path:paths){
+            listings.add(list(path));
+        }
+        return CompletableFuture.allOf(listings.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            List<DirectoryListing> result = new ArrayList<>(listings.size());
+            for (CompletableFuture<DirectoryListing> listing:listings){
+                result.add(listing.join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Run something nobody is waiting on yet, e.g. a prefetch, on a single low priority thread
+     * @param runnable
+     * @return
+     */
+    public static CompletableFuture<Void> runInBackground(IORunnable runnable){
+        return submit(preloadExecutor, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Listings of the directories below one that was just listed, down to the given depth, so that several levels of
+     * the tree can be filled at once. Nobody is waiting on these yet, so each level is sent as one batch to the low
+     * priority thread of {@link #runInBackground} and never holds up the calls on the main pool. No more than
+     * {@link #MAX_SUBTREE_DIRECTORIES} directories are listed in total. Cancelling the returned future drops whatever
+     * has not been listed yet.
+     * @param listing listing of the directory at the top, which is not listed again
+     * @param depth number of levels below it to list
+     * @return the listings, keyed by path
+     */
+    public static CompletableFuture<Map<List<String>, DirectoryListing>> getSubtree(DirectoryListing listing, int depth){
+        Map<List<String>, DirectoryListing> subtree = new HashMap<>();
+        List<List<String>> level = new ArrayList<>();
+        addSubdirectories(listing, level, subtree);
+        // don't list a directory that still has writes waiting for it
+        return chain(runInBackground(WriteBehindQueue::flush), ignored -> listLevels(level, depth, subtree));
+    }
+
+    private static CompletableFuture<Map<List<String>, DirectoryListing>> listLevels(List<List<String>> level, int depth, Map<List<String>, DirectoryListing> subtree){
+        if (level.isEmpty() || depth <= 0){
+            return CompletableFuture.completedFuture(subtree);
+        }
+        List<CompletableFuture<DirectoryListing>> listings = new ArrayList<>(level.size());
+        for (List<String> path:level){
+            listings.add(list(preloadExecutor, path));
+        }
+        return chain(all(listings), ignored -> {
+            List<List<String>> nextLevel = new ArrayList<>();
+            for (CompletableFuture<DirectoryListing> listing:listings){
+                subtree.put(listing.join().getPath(), listing.join());
+            }
+            for (CompletableFuture<DirectoryListing> listing:listings){
+                addSubdirectories(listing.join(), nextLevel, subtree);
+            }
+            return listLevels(nextLevel, depth-1, subtree);
+        });
+    }
+
+    private static void addSubdirectories(DirectoryListing listing, List<List<String>> level, Map<List<String>, DirectoryListing> subtree){
+        for (String child:listing.getChildren()){
+            if (subtree.size() + level.size() >= MAX_SUBTREE_DIRECTORIES){
+                return;
+            }
+            level.add(DirectoryPath.of(listing.getPath()).child(child));
+        }
+    }
+
+    public static CompletableFuture<Void> addChild(List<String> path, String name){
+        return queue(() -> {
+            IOController.getIoController().getStructureIOManager().addChild(path, name);
+            StructureChanges.childAdded(path, name);
+        });
+    }
+
+    public static CompletableFuture<Void> addContent(List<String> path, HashIdentifiedSpeechComponent component){
+        return queue(() -> {
+            IOController.getIoController().getStructureIOManager().addContent(path, component);
+            StructureChanges.contentAdded(path, component);
+        });
+    }
+
+    /**
+     * Store a new component and add it to a directory. Both writes are queued right away, one behind the other, so a
+     * structure change made meanwhile can't land between them and leave the component under a path that no longer
+     * exists. The add fails without running if the store did.
+     * @param path
+     * @param component
+     * @return
+     */
+    public static CompletableFuture<Void> addNewContent(List<String> path, HashIdentifiedSpeechComponent component){
+        CompletableFuture<Void> stored = storeSpeechComponent(component);
+        return queue(() -> {
+            // the store ran right before this on the same thread, so this does not wait
+            stored.join();
+            IOController.getIoController().getStructureIOManager().addContent(path, component);
+            StructureChanges.contentAdded(path, component);
+        });
+    }
+
+    public static CompletableFuture<Void> removeContent(List<String> path, byte[] hash){
+        return queue(() -> {
+            IOController.getIoController().getStructureIOManager().removeContent(path, hash);
+            StructureChanges.contentRemoved(path, hash);
+        });
+    }
+
+    /**
+     * Delete a directory and everything under it. Like the other structure changes it goes through the
+     * {@link WriteBehindQueue}, so once called it can't be cancelled, not even while it is still waiting there. The
+     * backend removes the whole subtree in one removeNode call, which reports no progress along the way.
+     * @param path
+     * @return completes once the directory is gone
+     */
+    public static CompletableFuture<Void> removeNode(List<String> path){
+        return queue(() -> {
+            IOController.getIoController().getStructureIOManager().removeNode(path);
+            DirectoryPath removed = DirectoryPath.of(path);
+            StructureChanges.childRemoved(removed.getParent(), removed.getName());
+        });
+    }
+
+    public static CompletableFuture<Void> renameDirectory(List<String> path, String oldName, String newName){
+        return queue(() -> {
+            IOController.getIoController().getStructureIOManager().renameDirectory(path, oldName, newName);
+            StructureChanges.childRenamed(path, oldName, newName);
+        });
+    }
+
+    /**
+     * Writes go through the {@link WriteBehindQueue} rather than the IO threads, so they reach the backend in the order
+     * they were made, together with the queued saves. Otherwise a queued add of a card could land after the rename or
+     * delete of its directory and bring the card back under a path that no longer exists. A failure completes the
+     * returned future and is passed on to the queue as well, so it is counted with the other failed writes.
+     */
+    private static CompletableFuture<Void> queue(IORunnable change){
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        WriteBehindQueue.enqueue("queued:" + queuedWrites.incrementAndGet(), () -> {
+            try {
+                change.run();
+                future.complete(null);
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                throw new IOException(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Lock the component for editing and, if that worked, release every other lock held by this client. Both calls run
+     * in one task on a single thread shared by all lock calls, so opening one component after another can never
+     * release the lock of the one opened last.
+     * @param hash
+     * @return the response to the lock attempt
+     */
+    public static CompletableFuture<DBLockResponse> switchLock(byte[] hash){
+        return submit(lockExecutor, () -> {
+            DBLockResponse response = IOController.getIoController().getDBLock().tryLock(hash);
+            if (response.getResultType() == DBLockResponse.ResultType.SUCCESS){
+                try {
+                    IOController.getIoController().getDBLock().unlockAllExcept(hash);
+                } catch (Exception e) {
+                    // the component is locked either way, and locks left behind time out
+                    e.printStackTrace();
+                }
+            }
+            return response;
+        });
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory{
+        private final String prefix;
+        private final int priority;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String prefix) {
+            this(prefix, Thread.NORM_PRIORITY);
+        }
+
+        private NamedThreadFactory(String prefix, int priority) {
+            this.prefix = prefix;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
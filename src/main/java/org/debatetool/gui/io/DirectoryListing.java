@@ -0,0 +1,59 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io;
+
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+
+import java.util.List;
+
+/**
+ * Everything directly inside one directory: the names of its subdirectories and the components stored in it.
+ */
+public class DirectoryListing {
+    private final List<String> path;
+    private final List<String> children;
+    private final List<HashIdentifiedSpeechComponent> contents;
+    private final long readStarted;
+
+    /**
+     * @param path
+     * @param children
+     * @param contents
+     * @param readStarted when the listing was requested, see StoreTracker.readStarted
+     */
+    public DirectoryListing(List<String> path, List<String> children, List<HashIdentifiedSpeechComponent> contents, long readStarted) {
+        this.path = path;
+        this.children = children;
+        this.contents = contents;
+        this.readStarted = readStarted;
+    }
+
+    public List<String> getPath() {
+        return path;
+    }
+
+    public List<String> getChildren() {
+        return children;
+    }
+
+    public List<HashIdentifiedSpeechComponent> getContents() {
+        return contents;
+    }
+
+    public long getReadStarted() {
+        return readStarted;
+    }
+}
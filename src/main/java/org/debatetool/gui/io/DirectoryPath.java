@@ -0,0 +1,137 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable directory path. Paths are interned: every path is created once, as a child of its parent, and looked up
+ * from then on, so building the path of a directory that was seen before allocates nothing and two paths are equal
+ * exactly when they are the same object. The hash code is computed once and follows the {@link List} contract, so a
+ * DirectoryPath can be used anywhere a List&lt;String&gt; path is expected, including as a key next to plain lists.
+ */
+public final class DirectoryPath extends AbstractList<String> implements RandomAccess {
+    public static final DirectoryPath ROOT = new DirectoryPath(null, null);
+    private final DirectoryPath parent;
+    private final String[] names;
+    private final int hash;
+    private volatile Map<String, DirectoryPath> children = null;
+    private String pathString = null;
+
+    private DirectoryPath(DirectoryPath parent, String name) {
+        this.parent = parent;
+        if (parent == null){
+            names = new String[0];
+            hash = 1;
+        }else{
+            names = new String[parent.names.length+1];
+            System.arraycopy(parent.names, 0, names, 0, parent.names.length);
+            names[parent.names.length] = name;
+            hash = 31*parent.hash + name.hashCode();
+        }
+    }
+
+    /**
+     * @param path
+     * @return the interned path with the same elements
+     */
+    public static DirectoryPath of(List<String> path){
+        if (path instanceof DirectoryPath){
+            return (DirectoryPath) path;
+        }
+        DirectoryPath result = ROOT;
+        for (String name:path){
+            result = result.child(name);
+        }
+        return result;
+    }
+
+    public DirectoryPath child(String name){
+        Map<String, DirectoryPath> children = this.children;
+        if (children == null){
+            synchronized (this){
+                if (this.children == null){
+                    this.children = new ConcurrentHashMap<>();
+                }
+                children = this.children;
+            }
+        }
+        DirectoryPath child = children.get(name);
+        if (child == null){
+            child = children.computeIfAbsent(name, key -> new DirectoryPath(this, key));
+        }
+        return child;
+    }
+
+    /**
+     * @return the path of the directory containing this one, or null for the root
+     */
+    public DirectoryPath getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the last element of the path, or null for the root
+     */
+    public String getName(){
+        return parent == null ? null : names[names.length-1];
+    }
+
+    public boolean isRoot(){
+        return parent == null;
+    }
+
+    /**
+     * @return the elements joined with "/", as shown to the user
+     */
+    public String toPathString(){
+        if (pathString == null){
+            pathString = String.join("/", names);
+        }
+        return pathString;
+    }
+
+    @Override
+    public String get(int index) {
+        return names[index];
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this){
+            return true;
+        }
+        if (o instanceof DirectoryPath){
+            // interned, so a different instance is a different path
+            return false;
+        }
+        return super.equals(o);
+    }
+}
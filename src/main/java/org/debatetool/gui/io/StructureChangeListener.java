@@ -0,0 +1,42 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io;
+
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+
+import java.util.List;
+
+/**
+ * Notified of changes to the directory structure once they have reached the backend. Calls come from whichever
+ * thread made the change.
+ */
+public interface StructureChangeListener {
+    void childAdded(List<String> path, String name);
+
+    void childRemoved(List<String> path, String name);
+
+    void childRenamed(List<String> path, String oldName, String newName);
+
+    void contentAdded(List<String> path, HashIdentifiedSpeechComponent component);
+
+    void contentRemoved(List<String> path, byte[] hash);
+
+    /**
+     * The component itself was stored, so anything showing its label or timestamp may be out of date
+     * @param component
+     */
+    void componentStored(HashIdentifiedSpeechComponent component);
+}
@@ -0,0 +1,83 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io;
+
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Feed of the structure changes made through this client. Whoever makes a change publishes it here after the backend
+ * call succeeds, so views of the tree can patch the affected nodes instead of listing whole directories again.
+ */
+public class StructureChanges {
+    private static final List<StructureChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static void addListener(StructureChangeListener listener){
+        listeners.add(listener);
+    }
+
+    public static void removeListener(StructureChangeListener listener){
+        listeners.remove(listener);
+    }
+
+    public static void childAdded(List<String> path, String name){
+        List<String> location = copy(path);
+        for (StructureChangeListener listener:listeners){
+            listener.childAdded(location, name);
+        }
+    }
+
+    public static void childRemoved(List<String> path, String name){
+        List<String> location = copy(path);
+        for (StructureChangeListener listener:listeners){
+            listener.childRemoved(location, name);
+        }
+    }
+
+    public static void childRenamed(List<String> path, String oldName, String newName){
+        List<String> location = copy(path);
+        for (StructureChangeListener listener:listeners){
+            listener.childRenamed(location, oldName, newName);
+        }
+    }
+
+    public static void contentAdded(List<String> path, HashIdentifiedSpeechComponent component){
+        List<String> location = copy(path);
+        for (StructureChangeListener listener:listeners){
+            listener.contentAdded(location, component);
+        }
+    }
+
+    public static void contentRemoved(List<String> path, byte[] hash){
+        List<String> location = copy(path);
+        for (StructureChangeListener listener:listeners){
+            listener.contentRemoved(location, hash);
+        }
+    }
+
+    public static void componentStored(HashIdentifiedSpeechComponent component){
+        for (StructureChangeListener listener:listeners){
+            listener.componentStored(component);
+        }
+    }
+
+    private static List<String> copy(List<String> path){
+        // listeners may hold on to the path while the caller keeps changing its list
+        return DirectoryPath.of(path);
+    }
+}
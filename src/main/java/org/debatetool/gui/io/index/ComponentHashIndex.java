@@ -0,0 +1,247 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io.index;
+
+import gnu.trove.impl.HashFunctions;
+import gnu.trove.impl.PrimeFinder;
+
+import java.util.Arrays;
+
+/**
+ * Map from component hash to a long (a record location, a fingerprint, ...) that does not allocate anything per
+ * entry. Keys are copied into a flat long[] in slot order and looked up with linear probing, so a lookup never has
+ * to wrap the byte[] the way a HashMap&lt;ByteBuffer, Long&gt; does. Component hashes are already uniformly
+ * distributed, so the first eight bytes of the key are enough to pick a slot.
+ *
+ * Not thread safe.
+ */
+public class ComponentHashIndex {
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int DEFAULT_EXPECTED_SIZE = 16;
+    private final int keyBytes;
+    private final int keyLongs;
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    /**
+     * @param keyBytes length of the hashes that will be stored, e.g. 16 for 128 bit hashes
+     */
+    public ComponentHashIndex(int keyBytes){
+        this(keyBytes, DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * @param keyBytes length of the hashes that will be stored, e.g. 16 for 128 bit hashes
+     * @param expectedSize number of entries to size the table for
+     */
+    public ComponentHashIndex(int keyBytes, int expectedSize){
+        if (keyBytes<=0){
+            throw new IllegalArgumentException("Key length must be positive: " + keyBytes);
+        }
+        this.keyBytes = keyBytes;
+        this.keyLongs = (keyBytes+Long.BYTES-1)/Long.BYTES;
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int getKeyBytes() {
+        return keyBytes;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public boolean containsKey(byte[] hash){
+        return find(hash)>=0;
+    }
+
+    /**
+     * @param hash
+     * @param missing value to return if the hash is not present
+     * @return the value stored for hash, or missing
+     */
+    public long get(byte[] hash, long missing){
+        int slot = find(hash);
+        return slot<0 ? missing : values[slot];
+    }
+
+    /**
+     * @param hash
+     * @param value
+     * @return true if the hash was not present before
+     */
+    public boolean put(byte[] hash, long value){
+        int slot = find(hash);
+        if (slot>=0){
+            values[slot] = value;
+            return false;
+        }
+        if (size+1 > used.length*LOAD_FACTOR){
+            rehash(capacityFor(2*(size+1)));
+        }
+        slot = home(hash);
+        while (used[slot]){
+            slot = next(slot);
+        }
+        used[slot] = true;
+        writeKey(hash, slot);
+        values[slot] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param hash
+     * @return true if the hash was present
+     */
+    public boolean remove(byte[] hash){
+        int slot = find(hash);
+        if (slot<0){
+            return false;
+        }
+        // shift later members of the probe run back, so lookups never need tombstones
+        int empty = slot;
+        int current = slot;
+        while (true){
+            current = next(current);
+            if (!used[current]){
+                break;
+            }
+            int currentHome = home(current);
+            boolean canMove;
+            if (current>empty){
+                canMove = currentHome<=empty || currentHome>current;
+            }else{
+                canMove = currentHome<=empty && currentHome>current;
+            }
+            if (canMove){
+                System.arraycopy(keys, current*keyLongs, keys, empty*keyLongs, keyLongs);
+                values[empty] = values[current];
+                empty = current;
+            }
+        }
+        used[empty] = false;
+        size--;
+        return true;
+    }
+
+    public void clear(){
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int find(byte[] hash){
+        checkLength(hash);
+        int slot = home(hash);
+        while (used[slot]){
+            if (keyEquals(hash, slot)){
+                return slot;
+            }
+            slot = next(slot);
+        }
+        return -1;
+    }
+
+    private int home(byte[] hash){
+        return slotFor(readLong(hash, 0));
+    }
+
+    private int home(int slot){
+        return slotFor(keys[slot*keyLongs]);
+    }
+
+    private int slotFor(long firstLong){
+        return (HashFunctions.hash(firstLong) & 0x7fffffff) % used.length;
+    }
+
+    private int next(int slot){
+        slot++;
+        return slot == used.length ? 0 : slot;
+    }
+
+    private boolean keyEquals(byte[] hash, int slot){
+        int offset = slot*keyLongs;
+        for (int i = 0; i < keyLongs; i++){
+            if (keys[offset+i] != readLong(hash, i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeKey(byte[] hash, int slot){
+        int offset = slot*keyLongs;
+        for (int i = 0; i < keyLongs; i++){
+            keys[offset+i] = readLong(hash, i);
+        }
+    }
+
+    /**
+     * Big-endian long made of the bytes starting at index*8, zero padded if the key runs out
+     */
+    private static long readLong(byte[] hash, int index){
+        long result = 0;
+        int start = index*Long.BYTES;
+        for (int i = start; i < start+Long.BYTES; i++){
+            result <<= 8;
+            if (i<hash.length){
+                result |= hash[i] & 0xff;
+            }
+        }
+        return result;
+    }
+
+    private void checkLength(byte[] hash){
+        if (hash.length != keyBytes){
+            throw new IllegalArgumentException("Expected a " + keyBytes + " byte hash but got " + hash.length + " bytes");
+        }
+    }
+
+    private static int capacityFor(int entries){
+        return PrimeFinder.nextPrime(Math.max(3, (int) Math.ceil(entries/LOAD_FACTOR)+1));
+    }
+
+    private void allocate(int capacity){
+        keys = new long[capacity*keyLongs];
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    private void rehash(int capacity){
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int oldSlot = 0; oldSlot < oldUsed.length; oldSlot++){
+            if (!oldUsed[oldSlot]){
+                continue;
+            }
+            int slot = slotFor(oldKeys[oldSlot*keyLongs]);
+            while (used[slot]){
+                slot = next(slot);
+            }
+            used[slot] = true;
+            System.arraycopy(oldKeys, oldSlot*keyLongs, keys, slot*keyLongs, keyLongs);
+            values[slot] = oldValues[oldSlot];
+        }
+    }
+}
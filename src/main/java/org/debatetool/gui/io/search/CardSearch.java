@@ -0,0 +1,165 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io.search;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.io.index.ComponentHashIndex;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full text search over the cards currently loaded in this client, i.e. those that came through directory listings,
+ * content loads and stores and are still held somewhere in the GUI. Each card is indexed on its text, tags and cite.
+ * The index only holds cards weakly, so a card drops out of it once the rest of the client lets go of it, and a card
+ * that comes through again unchanged is not indexed a second time.
+ */
+public class CardSearch {
+    private static final long MISSING = -1;
+    private static final InvertedIndex index = new InvertedIndex();
+    // card hash -> document id in the index
+    private static ComponentHashIndex documents = null;
+    // document id -> card, with ids of dropped cards reused
+    private static final List<IndexedCard> cards = new ArrayList<>();
+    // document id -> fingerprint of the state of the card that was indexed
+    private static final TLongArrayList fingerprints = new TLongArrayList();
+    private static final TIntArrayList freeDocuments = new TIntArrayList();
+    private static final ReferenceQueue<Card> collected = new ReferenceQueue<>();
+
+    private static class IndexedCard extends WeakReference<Card>{
+        private final byte[] hash;
+        private final int document;
+
+        private IndexedCard(Card card, int document) {
+            super(card, collected);
+            this.hash = card.getHash();
+            this.document = document;
+        }
+    }
+
+    /**
+     * Index the card, or index it again if its tags changed; everything else indexed is covered by the hash. Cards
+     * that are not loaded are skipped.
+     * @param card
+     */
+    public static void index(Card card){
+        if (!card.isLoaded()){
+            return;
+        }
+        byte[] hash = card.getHash();
+        long fingerprint = StoreTracker.fingerprint(card);
+        synchronized (cards){
+            purge();
+            if (documents == null){
+                documents = new ComponentHashIndex(hash.length);
+            }else if (documents.getKeyBytes() != hash.length){
+                return;
+            }
+            int document = (int) documents.get(hash, MISSING);
+            if (document == MISSING){
+                if (freeDocuments.isEmpty()){
+                    document = cards.size();
+                    cards.add(new IndexedCard(card, document));
+                    fingerprints.add(fingerprint);
+                }else{
+                    document = freeDocuments.removeAt(freeDocuments.size()-1);
+                    cards.set(document, new IndexedCard(card, document));
+                    fingerprints.set(document, fingerprint);
+                }
+                documents.put(hash, document);
+            }else{
+                if (cards.get(document).get() != card){
+                    // listings hand out new instances, keep the one that is in use now
+                    cards.set(document, new IndexedCard(card, document));
+                }
+                if (fingerprints.get(document) == fingerprint){
+                    return;
+                }
+                fingerprints.set(document, fingerprint);
+            }
+            Cite cite = card.getCite();
+            index.put(document, card.getText(), String.join(" ", card.getTags()),
+                    cite.getAuthor(), cite.getDate(), cite.getAdditionalInfo());
+        }
+    }
+
+    public static void index(List<? extends HashIdentifiedSpeechComponent> components){
+        for (HashIdentifiedSpeechComponent component:components){
+            if (component instanceof Card){
+                index((Card) component);
+            }
+        }
+    }
+
+    /**
+     * Drop the cards that were garbage collected since the last call. Must hold the lock on cards.
+     */
+    private static void purge(){
+        Reference<? extends Card> reference;
+        while ((reference = collected.poll()) != null){
+            IndexedCard indexed = (IndexedCard) reference;
+            // the document may have been handed a newer instance of the card in the meantime
+            if (cards.get(indexed.document) != indexed){
+                continue;
+            }
+            documents.remove(indexed.hash);
+            cards.set(indexed.document, null);
+            freeDocuments.add(indexed.document);
+            index.remove(indexed.document);
+        }
+    }
+
+    /**
+     * @param query words, "quoted phrases" and prefix* words, which all have to match
+     * @param limit maximum number of results
+     * @return matching cards, best match first
+     */
+    public static List<Card> search(String query, int limit){
+        // held across the search and the lookup, otherwise a dropped card's id could be handed to another card in
+        // between and the hit would come back as the wrong card
+        synchronized (cards){
+            purge();
+            int[] matches = index.search(query, limit);
+            List<Card> results = new ArrayList<>(matches.length);
+            for (int document:matches){
+                Card card = cards.get(document).get();
+                // collected, but not purged yet
+                if (card != null){
+                    results.add(card);
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * @return number of cards that are searched
+     */
+    public static int size(){
+        synchronized (cards){
+            purge();
+            return index.size();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.io.search;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Positional inverted index over documents made of a few text fields. Documents are identified by an int chosen by
+ * the caller and can be replaced or removed at any time, so the index is kept up to date one document at a time.
+ *
+ * A query is a list of clauses that all have to match: a plain word, a word ending in * that matches every word
+ * starting with it, or several words in double quotes that have to appear next to each other in the same field.
+ * Matches are ranked with BM25. Only the postings of the words in the query are read, so the cost of a query does not
+ * depend on the number of documents that do not contain them.
+ */
+public class InvertedIndex {
+    // positions skipped between fields, so that a phrase can't match across the end of one field and the next
+    private static final int FIELD_GAP = 100;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // term -> document -> positions of the term in the document
+    private final TreeMap<String, TIntObjectHashMap<int[]>> postings = new TreeMap<>();
+    // document -> its distinct terms, to find its postings again when it is removed
+    private final TIntObjectHashMap<String[]> documentTerms = new TIntObjectHashMap<>();
+    private final TIntIntHashMap documentLengths = new TIntIntHashMap();
+    private long totalLength = 0;
+
+    /**
+     * Add the document, replacing anything indexed under the same id before
+     * @param document
+     * @param fields text of the document; null fields are skipped
+     */
+    public synchronized void put(int document, String... fields){
+        remove(document);
+        Map<String, TIntArrayList> positions = new HashMap<>();
+        int position = 0;
+        int length = 0;
+        for (String field:fields){
+            if (field == null){
+                continue;
+            }
+            for (String term:tokenize(field)){
+                positions.computeIfAbsent(term, key -> new TIntArrayList()).add(position);
+                position++;
+                length++;
+            }
+            position += FIELD_GAP;
+        }
+        String[] terms = new String[positions.size()];
+        int i = 0;
+        for (Map.Entry<String, TIntArrayList> entry:positions.entrySet()){
+            terms[i++] = entry.getKey();
+            postings.computeIfAbsent(entry.getKey(), key -> new TIntObjectHashMap<>()).put(document, entry.getValue().toArray());
+        }
+        documentTerms.put(document, terms);
+        documentLengths.put(document, length);
+        totalLength += length;
+    }
+
+    /**
+     * @param document
+     * @return true if the document was in the index
+     */
+    public synchronized boolean remove(int document){
+        String[] terms = documentTerms.remove(document);
+        if (terms == null){
+            return false;
+        }
+        for (String term:terms){
+            TIntObjectHashMap<int[]> termPostings = postings.get(term);
+            termPostings.remove(document);
+            if (termPostings.isEmpty()){
+                postings.remove(term);
+            }
+        }
+        totalLength -= documentLengths.remove(document);
+        return true;
+    }
+
+    public synchronized int size(){
+        return documentTerms.size();
+    }
+
+    /**
+     * @param query
+     * @param limit maximum number of results
+     * @return ids of the matching documents, best match first
+     */
+    public synchronized int[] search(String query, int limit){
+        List<List<String>> clauses = parse(query);
+        if (clauses.isEmpty() || documentTerms.isEmpty()){
+            return new int[0];
+        }
+        TIntDoubleHashMap scores = null;
+        for (List<String> clause:clauses){
+            TIntDoubleHashMap clauseScores = score(clause);
+            if (scores == null){
+                scores = clauseScores;
+                continue;
+            }
+            // keep only the documents matching every clause, iterating over the smaller side
+            TIntDoubleHashMap smaller = clauseScores.size() < scores.size() ? clauseScores : scores;
+            TIntDoubleHashMap larger = smaller == scores ? clauseScores : scores;
+            TIntDoubleHashMap combined = new TIntDoubleHashMap(smaller.size());
+            for (TIntDoubleIterator iterator = smaller.iterator(); iterator.hasNext();){
+                iterator.advance();
+                if (larger.containsKey(iterator.key())){
+                    combined.put(iterator.key(), iterator.value() + larger.get(iterator.key()));
+                }
+            }
+            scores = combined;
+            if (scores.isEmpty()){
+                break;
+            }
+        }
+        return top(scores, limit);
+    }
+
+    /**
+     * Lower case words, split on anything that is not a letter or digit
+     * @param text
+     * @return
+     */
+    public static List<String> tokenize(String text){
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++){
+            boolean wordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordCharacter && start < 0){
+                start = i;
+            }else if (!wordCharacter && start >= 0){
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Split a query into clauses. A clause of one term ending in * is a prefix clause, a clause of several terms is a
+     * phrase.
+     */
+    private static List<List<String>> parse(String query){
+        List<List<String>> clauses = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++){
+            if (i%2 == 1){
+                // inside quotes
+                List<String> phrase = tokenize(parts[i]);
+                if (!phrase.isEmpty()){
+                    clauses.add(phrase);
+                }
+                continue;
+            }
+            for (String word:parts[i].trim().split("\\s+")){
+                List<String> terms = tokenize(word);
+                for (int j = 0; j < terms.size(); j++){
+                    boolean prefix = j == terms.size()-1 && word.endsWith("*");
+                    clauses.add(Arrays.asList(prefix ? terms.get(j) + "*" : terms.get(j)));
+                }
+            }
+        }
+        return clauses;
+    }
+
+    private TIntDoubleHashMap score(List<String> clause){
+        TIntDoubleHashMap scores = new TIntDoubleHashMap();
+        if (clause.size() > 1){
+            scorePhrase(clause, scores);
+        }else if (clause.get(0).endsWith("*")){
+            String prefix = clause.get(0).substring(0, clause.get(0).length()-1);
+            NavigableMap<String, TIntObjectHashMap<int[]>> expansion = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+            // every word with the prefix is expanded; stopping after some of them would drop matches without a trace
+            for (TIntObjectHashMap<int[]> termPostings:expansion.values()){
+                addScores(termPostings, scores);
+            }
+        }else{
+            TIntObjectHashMap<int[]> termPostings = postings.get(clause.get(0));
+            if (termPostings != null){
+                addScores(termPostings, scores);
+            }
+        }
+        return scores;
+    }
+
+    private void scorePhrase(List<String> phrase, TIntDoubleHashMap scores){
+        List<TIntObjectHashMap<int[]>> termPostings = new ArrayList<>(phrase.size());
+        TIntObjectHashMap<int[]> rarest = null;
+        for (String term:phrase){
+            TIntObjectHashMap<int[]> current = postings.get(term);
+            if (current == null){
+                return;
+            }
+            termPostings.add(current);
+            if (rarest == null || current.size() < rarest.size()){
+                rarest = current;
+            }
+        }
+        // only the documents containing the rarest term can match, so there is no need to go over the common ones
+        for (TIntObjectIterator<int[]> iterator = rarest.iterator(); iterator.hasNext();){
+            iterator.advance();
+            int document = iterator.key();
+            if (!containsPhrase(termPostings, document)){
+                continue;
+            }
+            double score = 0;
+            for (TIntObjectHashMap<int[]> current:termPostings){
+                score += bm25(current.size(), current.get(document).length, documentLengths.get(document));
+            }
+            scores.put(document, score);
+        }
+    }
+
+    private static boolean containsPhrase(List<TIntObjectHashMap<int[]>> termPostings, int document){
+        int[][] positions = new int[termPostings.size()][];
+        for (int i = 0; i < positions.length; i++){
+            positions[i] = termPostings.get(i).get(document);
+            if (positions[i] == null){
+                return false;
+            }
+        }
+        for (int start:positions[0]){
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++){
+                match = Arrays.binarySearch(positions[i], start+i) >= 0;
+            }
+            if (match){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addScores(TIntObjectHashMap<int[]> termPostings, TIntDoubleHashMap scores){
+        int documentFrequency = termPostings.size();
+        for (TIntObjectIterator<int[]> iterator = termPostings.iterator(); iterator.hasNext();){
+            iterator.advance();
+            int document = iterator.key();
+            double score = bm25(documentFrequency, iterator.value().length, documentLengths.get(document));
+            scores.adjustOrPutValue(document, score, score);
+        }
+    }
+
+    private double bm25(int documentFrequency, int termFrequency, int documentLength){
+        int documents = documentTerms.size();
+        double averageLength = Math.max(1, (double) totalLength / documents);
+        double idf = Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        return idf * termFrequency * (K1 + 1) / (termFrequency + K1 * (1 - B + B * documentLength / averageLength));
+    }
+
+    private static int[] top(TIntDoubleHashMap scores, int limit){
+        if (limit <= 0){
+            return new int[0];
+        }
+        // best first, ties broken by id so results are stable
+        Comparator<Integer> better = (first, second) -> {
+            int comparison = Double.compare(scores.get(second), scores.get(first));
+            return comparison != 0 ? comparison : Integer.compare(first, second);
+        };
+        // keep only the best few in a heap whose head is the worst of them, rather than sorting every match
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit+1, better.reversed());
+        for (TIntDoubleIterator iterator = scores.iterator(); iterator.hasNext();){
+            iterator.advance();
+            best.add(iterator.key());
+            if (best.size() > limit){
+                best.poll();
+            }
+        }
+        int[] result = new int[best.size()];
+        for (int i = result.length-1; i >= 0; i--){
+            result[i] = best.poll();
+        }
+        return result;
+    }
+}
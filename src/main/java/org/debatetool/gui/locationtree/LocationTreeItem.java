@@ -15,25 +15,38 @@
 
 package org.debatetool.gui.locationtree;
 
+import org.debatetool.core.Card;
 import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.gui.cardediting.MainGui;
-import org.debatetool.io.iocontrollers.IOController;
+import org.debatetool.gui.io.AsyncIO;
+import org.debatetool.gui.io.DirectoryListing;
+import org.debatetool.gui.io.DirectoryPath;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.scene.Cursor;
 import javafx.scene.control.TreeItem;
 import javafx.scene.image.Image;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
     private boolean childrenLoaded = false ;
     private boolean updating = false;
+    private boolean deleting = false;
+    // number of levels below an expanded directory that are listed in the background
+    private static final int PRELOAD_DEPTH = 2;
+    private CompletableFuture<Map<List<String>, DirectoryListing>> preload;
     public final static Image DIRECTORY_CLOSED = new Image(LocationTreeItem.class.getResource("/icons/Places-folder-icon.png").toExternalForm());
     public final static Image DIRECTORY_OPEN = new Image(LocationTreeItem.class.getResource("/icons/Places-folder-empty-icon.png").toExternalForm());
     public final static Image LETTER_B = new Image(LocationTreeItem.class.getResource("/icons/Letter-B-blue-icon.png").toExternalForm());
@@ -49,6 +62,23 @@ public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
         loadingProperty.removeListener(listener);
     }
 
+    public boolean isLoading(){
+        return loadingProperty.get();
+    }
+
+    public boolean isDeleting(){
+        return deleting;
+    }
+
+    /**
+     * Mark the directory as being deleted, which shows it as busy until the deletion is done
+     * @param deleting
+     */
+    public void setDeleting(boolean deleting){
+        this.deleting = deleting;
+        loadingProperty.set(deleting || updating);
+    }
+
     public boolean isChildrenLoaded() {
         return childrenLoaded;
     }
@@ -60,6 +90,12 @@ public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
     public LocationTreeItem(LocationTreeItemContent content){
         super();
         this.setValue(content);
+        expandedProperty().addListener((observableValue, wasExpanded, expanded) -> {
+            if (!expanded){
+                Prefetcher.cancelChildren(this);
+                cancelPreload();
+            }
+        });
 
     }
 
@@ -70,36 +106,25 @@ public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
         }
         updating = true;
         childrenLoaded = true;
-        // cannot be accessed from within trhead if not declared here
-        ObservableList<TreeItem<LocationTreeItemContent>> superChildren = super.getChildren();
-        Task task = new Task<>() {
-            @Override
-            protected Object call() throws Exception {
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
-                List<TreeItem<LocationTreeItemContent>> children = new ArrayList<>();
-                List<String> path = getPath();
-                List<String> childrenDirs = IOController.getIoController().getStructureIOManager().getChildren(path);
-                List<HashIdentifiedSpeechComponent> contents = null;
-                try {
-                    contents = IOController.getIoController().getStructureIOManager().getContent(path);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                for (String name:childrenDirs){
-                    children.add(new LocationTreeItem(new LocationTreeItemContent(name)));
-                }
-                for (HashIdentifiedSpeechComponent component :contents){
-                    children.add(new LocationTreeItem(new LocationTreeItemContent(component)));
-                }
-                MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
-                superChildren.addAll(children);
-                updating = false;
-                return null;
+        loadingProperty.set(true);
+        MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
+        List<String> path = getPath();
+        // make sure anything saved into this directory is visible before listing it
+        AsyncIO.run(WriteBehindQueue::flush).thenCompose(ignored -> AsyncIO.list(path)).whenCompleteAsync((listing, exception) -> {
+            MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
+            if (exception != null){
+                exception.printStackTrace();
+                // allow another attempt the next time the children are requested
+                childrenLoaded = false;
+            }else{
+                fill(Collections.singletonMap(listing.getPath(), listing), false);
+                // so expanding a subdirectory further does not need another round trip
+                preload(listing);
             }
-        };
-        Thread thread = new Thread(task);
-        thread.setDaemon(true);
-        thread.start();
+            updating = false;
+            // still busy if it is being deleted
+            loadingProperty.set(deleting);
+        }, Platform::runLater);
 
         return super.getChildren();
     }
@@ -116,24 +141,263 @@ public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
         }
     }
 
+    /**
+     * Reload this directory and every expanded directory below it. All of the listings are requested in one batch,
+     * and directories that still exist afterwards are expanded again.
+     */
     public void reloadChildrenRecursive(){
-        if (!childrenLoaded || isLeaf()){
+        if (updating || !childrenLoaded || isLeaf()){
             return;
         }
-        for (TreeItem<LocationTreeItemContent> child:getChildren()){
-            ((LocationTreeItem)child).reloadChildrenRecursive();
+        List<List<String>> paths = new ArrayList<>();
+        paths.add(getPath());
+        collectExpandedPaths(paths);
+        updating = true;
+        loadingProperty.set(true);
+        AsyncIO.run(WriteBehindQueue::flush).thenCompose(ignored -> AsyncIO.listAll(paths)).whenCompleteAsync((listings, exception) -> {
+            updating = false;
+            loadingProperty.set(false);
+            if (exception != null){
+                exception.printStackTrace();
+                return;
+            }
+            Map<List<String>, DirectoryListing> listingsByPath = new HashMap<>();
+            for (DirectoryListing listing:listings){
+                listingsByPath.put(listing.getPath(), listing);
+            }
+            fill(listingsByPath, true);
+        }, Platform::runLater);
+    }
+
+    private void collectExpandedPaths(List<List<String>> paths){
+        for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+            LocationTreeItem item = (LocationTreeItem) child;
+            if (item.getValue() != null && !item.isLeaf() && item.childrenLoaded && item.isExpanded()){
+                paths.add(item.getPath());
+                item.collectExpandedPaths(paths);
+            }
+        }
+    }
+
+    /**
+     * Build the children of this directory, and of every directory below it that has a listing, from the listings
+     * @param listingsByPath
+     * @param expand whether the directories below that were filled should also be expanded
+     */
+    private void fill(Map<List<String>, DirectoryListing> listingsByPath, boolean expand){
+        childrenLoaded = true;
+        cancelPreload();
+        super.getChildren().setAll(createChildren(listingsByPath.get(getPath())));
+        for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+            LocationTreeItem item = (LocationTreeItem) child;
+            if (!item.isLeaf() && listingsByPath.containsKey(item.getPath())){
+                item.fill(listingsByPath, expand);
+                if (expand){
+                    item.setExpanded(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * List the levels below this directory in the background through {@link AsyncIO#getSubtree}, which never delays
+     * the listings and loads the user is waiting on, and fill in the subdirectories with them
+     * @param listing listing of this directory
+     */
+    private void preload(DirectoryListing listing){
+        cancelPreload();
+        CompletableFuture<Map<List<String>, DirectoryListing>> preload = AsyncIO.getSubtree(listing, PRELOAD_DEPTH);
+        this.preload = preload;
+        preload.whenCompleteAsync((subtree, exception) -> {
+            if (this.preload != preload){
+                // cancelled, or the directory was listed again meanwhile
+                return;
+            }
+            this.preload = null;
+            if (exception != null){
+                exception.printStackTrace();
+                return;
+            }
+            for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+                LocationTreeItem item = (LocationTreeItem) child;
+                // skip directories that were expanded and listed some other way while waiting
+                if (item.getValue() != null && !item.isLeaf() && !item.childrenLoaded && !item.updating
+                        && subtree.containsKey(item.getPath())){
+                    item.fill(subtree, false);
+                }
+            }
+        }, Platform::runLater);
+    }
+
+    private void cancelPreload(){
+        if (preload != null){
+            preload.cancel(true);
+            preload = null;
+        }
+    }
+
+    private static List<TreeItem<LocationTreeItemContent>> createChildren(DirectoryListing listing){
+        List<TreeItem<LocationTreeItemContent>> children = new ArrayList<>();
+        for (String name:listing.getChildren()){
+            children.add(new LocationTreeItem(new LocationTreeItemContent(name)));
+        }
+        for (HashIdentifiedSpeechComponent component :listing.getContents()){
+            if (component instanceof Card){
+                // cards come back fully loaded, so saving one unchanged can be skipped
+                StoreTracker.markStored(component.getHash(), StoreTracker.fingerprint((Card) component), listing.getReadStarted());
+            }
+            children.add(new LocationTreeItem(new LocationTreeItemContent(component)));
+        }
+        return children;
+    }
+
+    /**
+     * @param path
+     * @return the directory at the path below this one, or null if it is not loaded into the tree
+     */
+    public LocationTreeItem findLoaded(List<String> path){
+        LocationTreeItem current = this;
+        for (String name:path){
+            if (!current.childrenLoaded){
+                return null;
+            }
+            LocationTreeItem next = null;
+            for (TreeItem<LocationTreeItemContent> child:current.superChildren()){
+                LocationTreeItem item = (LocationTreeItem) child;
+                if (item.getValue() != null && !item.isLeaf() && name.equals(item.getValue().toString())){
+                    next = item;
+                    break;
+                }
+            }
+            if (next == null){
+                return null;
+            }
+            current = next;
         }
-        reloadChildren();
+        return current;
+    }
+
+    /*
+     * The patch methods below only touch directories whose listing is already in place. One that has not been listed
+     * yet, or is being listed right now, will pick the change up from the backend.
+     */
+
+    public void childAdded(String name){
+        if (!isPatchable() || findChild(name) != null){
+            return;
+        }
+        removePlaceholder();
+        super.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(name)));
+    }
+
+    public void childRemoved(String name){
+        if (!isPatchable()){
+            return;
+        }
+        LocationTreeItem child = findChild(name);
+        if (child != null){
+            super.getChildren().remove(child);
+        }
+    }
+
+    public void childRenamed(String oldName, String newName){
+        if (!isPatchable()){
+            return;
+        }
+        LocationTreeItem child = findChild(oldName);
+        if (child != null){
+            child.getValue().setDisplay(newName);
+        }
+    }
+
+    public void contentAdded(HashIdentifiedSpeechComponent component){
+        if (!isPatchable()){
+            return;
+        }
+        LocationTreeItem existing = findContent(component.getHash());
+        if (existing != null){
+            existing.setValue(new LocationTreeItemContent(component));
+            return;
+        }
+        removePlaceholder();
+        super.getChildren().add(new LocationTreeItem(new LocationTreeItemContent(component)));
+    }
+
+    public void contentRemoved(byte[] hash){
+        if (!isPatchable()){
+            return;
+        }
+        LocationTreeItem existing = findContent(hash);
+        if (existing != null){
+            super.getChildren().remove(existing);
+        }
+    }
+
+    /**
+     * Refresh the label and date of every loaded item below this one that shows the component
+     * @param component
+     */
+    public void componentStored(HashIdentifiedSpeechComponent component){
+        if (!childrenLoaded){
+            return;
+        }
+        for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+            LocationTreeItem item = (LocationTreeItem) child;
+            if (item.getValue() == null){
+                continue;
+            }
+            if (!item.isLeaf()){
+                item.componentStored(component);
+            }else if (Arrays.equals(item.getValue().getSpeechComponent().getHash(), component.getHash())){
+                item.getValue().setDisplay(component.getLabel());
+                item.getValue().setTimestamp(component.getTimeStamp());
+            }
+        }
+    }
+
+    private boolean isPatchable(){
+        return childrenLoaded && !updating;
+    }
+
+    private List<TreeItem<LocationTreeItemContent>> superChildren(){
+        return super.getChildren();
+    }
+
+    private LocationTreeItem findChild(String name){
+        for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+            LocationTreeItem item = (LocationTreeItem) child;
+            if (item.getValue() != null && !item.isLeaf() && name.equals(item.getValue().toString())){
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private LocationTreeItem findContent(byte[] hash){
+        for (TreeItem<LocationTreeItemContent> child:super.getChildren()){
+            LocationTreeItem item = (LocationTreeItem) child;
+            if (item.getValue() != null && item.isLeaf() && Arrays.equals(item.getValue().getSpeechComponent().getHash(), hash)){
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private void removePlaceholder(){
+        // an empty root holds a single item with no value, see MainGui
+        super.getChildren().removeIf(child -> child.getValue() == null);
     }
 
     // TODO this method is inefficient on several levels - will matter with a large tree
     public boolean contains(List<String> path){
         if (isLeaf()){
-            return getPath().equals(path);
+            // only directories have a path of their own
+            return false;
         }
         if (isChildrenLoaded()) {
             for (TreeItem<LocationTreeItemContent> child : getChildren()) {
-                if (((LocationTreeItem) child).getPath().equals(path) || ((LocationTreeItem) child).contains(path)) {
+                LocationTreeItem item = (LocationTreeItem) child;
+                if (item.getValue() != null && !item.isLeaf() && (item.getPath().equals(path) || item.contains(path))) {
                     return true;
                 }
             }
@@ -147,17 +411,19 @@ public class LocationTreeItem extends TreeItem<LocationTreeItemContent> {
         return getValue().getSpeechComponent()!=null;
     }
 
-    public List<String> getPath(){
+    /**
+     * Paths are interned, so for a directory that has been seen before this only looks up each level and allocates
+     * nothing. It is recomputed on every call, so renames and moves are picked up without any invalidation.
+     * @return the path of the directory, or for a card, block or speech the path of the directory holding it; their
+     * labels are not directory names and are never interned
+     */
+    public DirectoryPath getPath(){
         if (getParent() == null){
-            return new ArrayList<>();
-        }else if (getParent().getParent()==null){
-            List<String> path = new ArrayList<>();
-            path.add(getValue().toString());
-            return path;
-        }else{
-            List<String> parentPath = ((LocationTreeItem) getParent()).getPath();
-            parentPath.add(getValue().toString());
-            return parentPath;
+            return DirectoryPath.ROOT;
+        }
+        if (isLeaf()){
+            return ((LocationTreeItem) getParent()).getPath();
         }
+        return ((LocationTreeItem) getParent()).getPath().child(getValue().toString());
     }
 }
@@ -0,0 +1,73 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.locationtree;
+
+import javafx.application.Platform;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.gui.io.StructureChangeListener;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Applies structure changes to the loaded part of a directory tree, on the FX thread.
+ */
+public class LocationTreeUpdater implements StructureChangeListener {
+    private final LocationTreeItem root;
+
+    public LocationTreeUpdater(LocationTreeItem root) {
+        this.root = root;
+    }
+
+    @Override
+    public void childAdded(List<String> path, String name) {
+        patch(path, directory -> directory.childAdded(name));
+    }
+
+    @Override
+    public void childRemoved(List<String> path, String name) {
+        patch(path, directory -> directory.childRemoved(name));
+    }
+
+    @Override
+    public void childRenamed(List<String> path, String oldName, String newName) {
+        patch(path, directory -> directory.childRenamed(oldName, newName));
+    }
+
+    @Override
+    public void contentAdded(List<String> path, HashIdentifiedSpeechComponent component) {
+        patch(path, directory -> directory.contentAdded(component));
+    }
+
+    @Override
+    public void contentRemoved(List<String> path, byte[] hash) {
+        patch(path, directory -> directory.contentRemoved(hash));
+    }
+
+    @Override
+    public void componentStored(HashIdentifiedSpeechComponent component) {
+        Platform.runLater(() -> root.componentStored(component));
+    }
+
+    private void patch(List<String> path, Consumer<LocationTreeItem> change){
+        Platform.runLater(() -> {
+            LocationTreeItem directory = root.findLoaded(path);
+            if (directory != null){
+                change.accept(directory);
+            }
+        });
+    }
+}
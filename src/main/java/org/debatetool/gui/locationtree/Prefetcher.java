@@ -0,0 +1,179 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.gui.locationtree;
+
+import javafx.scene.control.TreeItem;
+import org.debatetool.core.Card;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.gui.WriteBehindQueue;
+import org.debatetool.gui.io.AsyncIO;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the components of the directory tree rows that are on screen before they are opened, along with the overlays
+ * of cards. Rows report themselves as they are shown, and everything runs on the low priority thread of
+ * {@link AsyncIO#runInBackground} so that it never competes with the requests the user is actually waiting on. Only the most recent {@link #MAX_PREFETCHES} rows are kept; older ones, rows that
+ * scroll out of view and the contents of collapsed directories are dropped if their load has not started yet.
+ */
+public class Prefetcher {
+    private static final int MAX_PREFETCHES = 64;
+    // a prefetched component older than this is loaded again when opened, in case someone else changed it meanwhile
+    private static final long MAX_AGE_MILLIS = 60*1000;
+    // in request order, so that the oldest prefetch is the one dropped when over the cap
+    private static final LinkedHashMap<HashIdentifiedSpeechComponent, Prefetch> prefetches = new LinkedHashMap<>();
+
+    private static class Prefetch implements AsyncIO.IORunnable{
+        private final HashIdentifiedSpeechComponent component;
+        private final CompletableFuture<Long> loadedAt = new CompletableFuture<>();
+        // set once the prefetch runs or is dropped, whichever comes first
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private Prefetch(HashIdentifiedSpeechComponent component) {
+            this.component = component;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)){
+                // dropped while it was queued
+                return;
+            }
+            try {
+                // don't read back a state that is still waiting to be written
+                WriteBehindQueue.flush();
+                if (!component.isLoaded()){
+                    component.load();
+                }
+                if (component instanceof Card){
+                    // the overlays are read lazily, and opening a card needs them right away
+                    ((Card) component).getHighlighting();
+                    ((Card) component).getUnderlining();
+                }
+                loadedAt.complete(System.currentTimeMillis());
+            } catch (Throwable e) {
+                loadedAt.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Drop the prefetch if it has not started yet; one that is running is left to finish
+         */
+        private void cancel(){
+            if (claimed.compareAndSet(false, true)){
+                loadedAt.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Called when a row of the directory tree is shown
+     * @param item
+     */
+    public static void request(LocationTreeItem item){
+        if (item.getValue() == null || !item.isLeaf()){
+            return;
+        }
+        HashIdentifiedSpeechComponent component = item.getValue().getSpeechComponent();
+        if (component.isLoaded() && !(component instanceof Card)){
+            // cards come back loaded from listings, but their overlays still have to be read
+            return;
+        }
+        synchronized (prefetches){
+            if (prefetches.containsKey(component)){
+                return;
+            }
+            if (prefetches.size() >= MAX_PREFETCHES){
+                Iterator<Prefetch> eldest = prefetches.values().iterator();
+                eldest.next().cancel();
+                eldest.remove();
+            }
+            Prefetch prefetch = new Prefetch(component);
+            prefetches.put(component, prefetch);
+            AsyncIO.runInBackground(prefetch);
+        }
+    }
+
+    /**
+     * Called when a row of the directory tree is no longer shown
+     * @param item
+     */
+    public static void cancel(LocationTreeItem item){
+        if (item.getValue() == null || !item.isLeaf()){
+            return;
+        }
+        cancel(item.getValue().getSpeechComponent());
+    }
+
+    /**
+     * Drop the pending prefetches of everything directly inside the directory, e.g. because it was collapsed
+     * @param directory
+     */
+    public static void cancelChildren(LocationTreeItem directory){
+        if (!directory.isChildrenLoaded()){
+            return;
+        }
+        for (TreeItem<LocationTreeItemContent> child:directory.getChildren()){
+            cancel((LocationTreeItem) child);
+        }
+    }
+
+    /**
+     * Wait for a prefetch of the component if it is already running or done. One that is still queued is dropped
+     * instead, since it may be waiting behind many others and loading directly is faster. Each prefetch is only
+     * handed out once, so opening the same component again later goes back to the backend.
+     * @param component
+     * @return true if the component was recently loaded by a prefetch and does not need to be loaded again
+     * @throws InterruptedException
+     */
+    public static boolean awaitPrefetch(HashIdentifiedSpeechComponent component) throws InterruptedException {
+        Prefetch prefetch;
+        synchronized (prefetches){
+            prefetch = prefetches.remove(component);
+        }
+        if (prefetch == null){
+            return false;
+        }
+        prefetch.cancel();
+        if (prefetch.loadedAt.isCancelled()){
+            // had not started, the caller loads it directly
+            return false;
+        }
+        try {
+            return System.currentTimeMillis() - prefetch.loadedAt.get() < MAX_AGE_MILLIS;
+        } catch (CancellationException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    private static void cancel(HashIdentifiedSpeechComponent component){
+        synchronized (prefetches){
+            Prefetch prefetch = prefetches.get(component);
+            if (prefetch == null){
+                return;
+            }
+            prefetch.cancel();
+            if (prefetch.loadedAt.isCancelled()){
+                prefetches.remove(component);
+            }
+        }
+    }
+}
@@ -18,15 +18,16 @@ package org.debatetool.gui.speechtools;
 import org.debatetool.core.*;
 import org.debatetool.core.html.HtmlEncoder;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.StoreTracker;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.gui.cardediting.MainGui;
-import org.debatetool.io.iocontrollers.IOController;
+import org.debatetool.gui.io.AsyncIO;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
@@ -44,9 +45,10 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.scene.web.WebView;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class SpeechEditor {
     @FXML protected
@@ -58,43 +60,78 @@ public class SpeechEditor {
     @FXML protected
     GridPane viewerArea;
     private Speech speech;
+    // the copy last handed out by getEditedSpeech
+    private Speech edited;
+    private CompletableFuture<Void> loading;
     final static String WEBVIEW_HTML = SpeechEditor.class.getClassLoader().getResource("BlockViewer.html").toExternalForm();
 
     public void open(Speech speech) {
+        if (speech == edited){
+            // the editor's own unsaved state coming back from the viewer, which the tree still holds
+            return;
+        }
         if (this.speech == null || speech.getHash()!=this.speech.getHash()) {
-            Task task = new Task() {
-                @Override
-                protected Object call() {
-                    MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
-                    try {
-                        // reloading speeches allows us to make sure the blocks didn't change
-                        speech.reload();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
-                    return null;
+            load(speech);
+        }
+    }
+
+    private void load(Speech speech){
+        if (loading != null){
+            // only the most recently opened speech needs to finish loading
+            loading.cancel(true);
+        }
+        MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
+        List<SpeechComponent> contents = new ArrayList<>();
+        CompletableFuture<Void> load = AsyncIO.chain(AsyncIO.run(() -> {
+            // the speech may refer to blocks that are still waiting to be written
+            WriteBehindQueue.flush();
+            // a queued store may be changing the speech, see StoreTracker.storeIfChanged
+            long readStarted = StoreTracker.readStarted();
+            String name;
+            synchronized (speech){
+                // reloading speeches allows us to make sure the blocks didn't change
+                speech.reload();
+                name = speech.getName();
+                for (int i = 0; i < speech.size(); i++){
+                    contents.add(speech.getComponent(i));
                 }
-            };
-            Thread thread = new Thread(task);
-            thread.setDaemon(true);
-            thread.start();
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            }
+            StoreTracker.markStored(speech.getHash(), StoreTracker.fingerprint(name, contents), readStarted);
+        }), ignored -> AsyncIO.loadContents(contents));
+        loading = load;
+        load.whenCompleteAsync((result, exception) -> {
+            if (load != loading){
+                return;
+            }
+            loading = null;
+            MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
+            if (exception != null){
+                exception.printStackTrace();
             }
             this.speech = speech;
-            populateTree();
+            populateTree(contents);
             generateContents();
-        }
+        }, Platform::runLater);
     }
 
     public Speech getSpeech(){
-        updateSpeechContents();
         return speech;
     }
 
+    /**
+     * The speech as the editor shows it, including changes that have not been saved, e.g. for exporting or for the
+     * viewer. This is a new speech with a hash of its own and must not be stored; the opened speech itself only
+     * changes when it is saved.
+     * @return
+     */
+    public Speech getEditedSpeech(){
+        edited = new Speech(speech.getName());
+        for (SpeechComponent component:getContents()){
+            edited.addComponent(component);
+        }
+        return edited;
+    }
+
     private void generateContents(){
         viewerArea.getChildren().clear();
         for (int i = 0; i < speechTreeView.getRoot().getChildren().size(); i++){
@@ -173,31 +210,34 @@ public class SpeechEditor {
     }
 
     public void save() {
-        updateSpeechContents();
-        try {
-            IOController.getIoController().getComponentIOManager().storeSpeechComponent(speech);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (speech == null){
+            // nothing has been opened yet
+            return;
         }
+        Speech speech = this.speech;
+        List<SpeechComponent> contents = getContents();
+        // the speech is only changed on the writer thread, right before it is stored
+        StoreTracker.storeIfChanged(speech, StoreTracker.fingerprint(speech.getName(), contents), () -> {
+            speech.clearContents();
+            for (SpeechComponent component:contents){
+                speech.addComponent(component);
+            }
+        });
     }
 
-    private void updateSpeechContents(){
+    private List<SpeechComponent> getContents(){
         List<TreeItem> children = speechTreeView.getRoot().getChildren();
-        speech.clearContents();
+        List<SpeechComponent> contents = new ArrayList<>(children.size());
         for (TreeItem child:children){
-            speech.addComponent((SpeechComponent) child.getValue());
+            contents.add((SpeechComponent) child.getValue());
         }
+        return contents;
     }
 
     public void refresh() {
-        try {
-            // reloading speeches allows us to make sure the blocks didn't change
-            speech.reload();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (speech != null){
+            load(speech);
         }
-        populateTree();
-        generateContents();
     }
 
     private class ContentLoader implements ChangeListener<Worker.State>{
@@ -257,9 +297,8 @@ public class SpeechEditor {
                 if (keyEvent.getCode().equals(KeyCode.DELETE)){
                     TreeItem<SpeechComponent> item = (TreeItem<SpeechComponent>) speechTreeView.getSelectionModel().getSelectedItem();
                     if (item!=null){
-                        updateSpeechContents();
-                        speech.removeComponent(item.getValue());
-                        refresh();
+                        // only top level items can be removed, like before
+                        speechTreeView.getRoot().getChildren().remove(item);
                     }
                 }
             }
@@ -267,10 +306,9 @@ public class SpeechEditor {
 
     }
 
-    private void populateTree(){
+    private void populateTree(List<SpeechComponent> contents){
         TreeItem<SpeechComponent> root = new TreeItem<>();
-        for (int i = 0; i < speech.size(); i++){
-            SpeechComponent component = speech.getComponent(i);
+        for (SpeechComponent component:contents){
             root.getChildren().add(SpeechComponentCellFactory.createTreeItem(component));
         }
         setRoot(root);
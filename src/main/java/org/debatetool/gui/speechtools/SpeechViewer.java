@@ -19,12 +19,13 @@ import org.debatetool.core.Speech;
 import org.debatetool.core.SpeechElementContainer;
 import org.debatetool.core.html.HtmlEncoder;
 import org.debatetool.gui.SettingsHandler;
+import org.debatetool.gui.WriteBehindQueue;
 import org.debatetool.gui.cardediting.MainGui;
+import org.debatetool.gui.io.AsyncIO;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
-import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
 import javafx.fxml.FXML;
 import javafx.scene.Cursor;
@@ -34,8 +35,8 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.web.WebView;
 
-import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class SpeechViewer {
     public WebView webview;
@@ -44,35 +45,39 @@ public class SpeechViewer {
     @FXML protected
     BorderPane mainPane;
     private SpeechElementContainer speech;
+    private CompletableFuture<Void> loading;
     final static String WEBVIEW_HTML = SpeechViewer.class.getClassLoader().getResource("BlockViewer.html").toExternalForm();
 
     public void open(SpeechElementContainer speech) {
-        if (!speech.isLoaded()){
-            Task task = new Task() {
-                @Override
-                protected Object call() {
-                    MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
-                    try {
-                        speech.load();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
-                    return null;
-                }
-            };
-            Thread thread = new Thread(task);
-            thread.setDaemon(true);
-            thread.start();
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
+        if (loading != null){
+            // only the most recently opened speech needs to finish loading
+            loading.cancel(true);
+            loading = null;
         }
-        this.speech = speech;
-        generateContents();
+        if (speech.isLoaded()){
+            this.speech = speech;
+            generateContents();
+            return;
+        }
+        MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.WAIT);
+        CompletableFuture<Void> load = AsyncIO.run(() -> {
+            // the speech may refer to blocks that are still waiting to be written
+            WriteBehindQueue.flush();
+            speech.load();
+        });
+        loading = load;
+        load.whenCompleteAsync((result, exception) -> {
+            if (load != loading){
+                return;
+            }
+            loading = null;
+            MainGui.getActiveGUI().getScene().getRoot().setCursor(Cursor.DEFAULT);
+            if (exception != null){
+                exception.printStackTrace();
+            }
+            this.speech = speech;
+            generateContents();
+        }, Platform::runLater);
     }
 
     public void refresh(){
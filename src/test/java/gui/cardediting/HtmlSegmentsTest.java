@@ -0,0 +1,102 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package gui.cardediting;
+
+import org.debatetool.gui.cardediting.HtmlSegments;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class HtmlSegmentsTest {
+    private static final String OPEN = "<span class='seg'>";
+    private static final String CLOSE = "</span>";
+
+    private List<String> unwrap(List<String> segments){
+        List<String> pieces = new ArrayList<>();
+        for (String segment:segments){
+            Assert.assertTrue(segment.startsWith(OPEN) && segment.endsWith(CLOSE), segment);
+            pieces.add(segment.substring(OPEN.length(), segment.length()-CLOSE.length()));
+        }
+        return pieces;
+    }
+
+    private String highlight(String text, int end){
+        return "<span style='background-color:yellow'>" + text.substring(0, end) + "</span>" + text.substring(end);
+    }
+
+    private String longText(){
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 150; i++){
+            builder.append("word").append(i).append(' ');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void balancedTest(){
+        List<String> segments = HtmlSegments.split("<b>bold <i>nested</i></b> plain <u>under</u>");
+        Assert.assertEquals(unwrap(segments), Arrays.asList("<b>bold <i>nested</i></b>", " plain ", "<u>under</u>"));
+        Assert.assertEquals(unwrap(HtmlSegments.split("just text")), Arrays.asList("just text"));
+        Assert.assertEquals(HtmlSegments.split(""), new ArrayList<String>());
+    }
+
+    @Test
+    public void unbalancedTest(){
+        Assert.assertNull(HtmlSegments.split("<b>never closed"));
+        Assert.assertNull(HtmlSegments.split("closed</b> never opened"));
+        Assert.assertNull(HtmlSegments.split("tag <b never ends"));
+    }
+
+    @Test
+    public void voidTagTest(){
+        Assert.assertEquals(unwrap(HtmlSegments.split("one<br>two<img src='x.png'/>three<hr/>")),
+                Arrays.asList("one", "<br>", "two", "<img src='x.png'/>", "three", "<hr/>"));
+        // void tags don't open anything, so the element around them still closes at the right place
+        Assert.assertEquals(unwrap(HtmlSegments.split("<p>a<BR>b<wbr>c</p>d")), Arrays.asList("<p>a<BR>b<wbr>c</p>", "d"));
+    }
+
+    @Test
+    public void joinTest(){
+        String[] inputs = {"<b>bold</b> plain <br> more", longText(), highlight(longText(), 300)};
+        for (String html:inputs){
+            List<String> segments = HtmlSegments.split(html);
+            Assert.assertEquals(String.join("", unwrap(segments)), html);
+            Assert.assertEquals(HtmlSegments.join(segments, 0, segments.size()), String.join("", segments));
+        }
+        List<String> segments = HtmlSegments.split("a<br>b");
+        Assert.assertEquals(HtmlSegments.join(segments, 1, 2), OPEN + "<br>" + CLOSE);
+        Assert.assertEquals(HtmlSegments.join(segments, 1, 1), "");
+    }
+
+    @Test
+    public void stableCutsTest(){
+        String text = longText();
+        List<String> before = HtmlSegments.split(highlight(text, 50));
+        List<String> after = HtmlSegments.split(highlight(text, 60));
+        // long text is cut into several pieces
+        Assert.assertTrue(before.size() > 3);
+        Assert.assertEquals(after.size(), before.size());
+        // moving the end of the highlight only changes it and the text up to the next cut
+        int prefix = HtmlSegments.commonPrefix(before, after);
+        Assert.assertEquals(prefix, 0);
+        Assert.assertEquals(HtmlSegments.commonSuffix(before, after, prefix), before.size()-2);
+        Assert.assertEquals(HtmlSegments.commonPrefix(before, before), before.size());
+        Assert.assertEquals(HtmlSegments.commonSuffix(before, before, before.size()), 0);
+    }
+}
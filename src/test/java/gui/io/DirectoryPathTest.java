@@ -0,0 +1,58 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package gui.io;
+
+import org.debatetool.gui.io.DirectoryPath;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class DirectoryPathTest {
+    @Test
+    public void internTest(){
+        DirectoryPath path = DirectoryPath.ROOT.child("Aff").child("Case");
+        Assert.assertSame(DirectoryPath.of(Arrays.asList("Aff", "Case")), path);
+        Assert.assertSame(path.getParent(), DirectoryPath.ROOT.child("Aff"));
+        Assert.assertSame(path.getParent().getParent(), DirectoryPath.ROOT);
+        Assert.assertNull(DirectoryPath.ROOT.getParent());
+        Assert.assertEquals(path.getName(), "Case");
+        Assert.assertEquals(path.toPathString(), "Aff/Case");
+    }
+
+    @Test
+    public void listContractTest(){
+        DirectoryPath path = DirectoryPath.ROOT.child("Neg").child("DA").child("Links");
+        List<String> list = new ArrayList<>(Arrays.asList("Neg", "DA", "Links"));
+        Assert.assertEquals(path, list);
+        Assert.assertEquals(list, path);
+        Assert.assertEquals(path.hashCode(), list.hashCode());
+        Assert.assertEquals(DirectoryPath.ROOT.hashCode(), new ArrayList<String>().hashCode());
+        Map<List<String>, Integer> map = new HashMap<>();
+        map.put(list, 1);
+        Assert.assertEquals(map.get(path), Integer.valueOf(1));
+        Assert.assertNotEquals(path, path.getParent());
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void immutableTest(){
+        DirectoryPath.ROOT.child("Aff").add("Case");
+    }
+}
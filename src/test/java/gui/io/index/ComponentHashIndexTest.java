@@ -0,0 +1,87 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package gui.io.index;
+
+import org.debatetool.gui.io.index.ComponentHashIndex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class ComponentHashIndexTest {
+    public final long MISSING = Long.MIN_VALUE;
+
+    @Test
+    public void putGetRemoveTest(){
+        ComponentHashIndex index = new ComponentHashIndex(16);
+        byte[] hash = new byte[16];
+        hash[0] = 1;
+        Assert.assertTrue(index.put(hash, 42));
+        Assert.assertFalse(index.put(hash, 43));
+        Assert.assertEquals(index.get(hash, MISSING), 43);
+        Assert.assertEquals(index.size(), 1);
+        Assert.assertTrue(index.remove(hash));
+        Assert.assertFalse(index.containsKey(hash));
+        Assert.assertEquals(index.get(hash, MISSING), MISSING);
+        Assert.assertTrue(index.isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void wrongLengthTest(){
+        new ComponentHashIndex(16).put(new byte[32], 1);
+    }
+
+    @Test
+    public void matchesHashMapTest(){
+        // keys share their first bytes now and then, so that probe runs get long and removal has to shift them
+        Random random = new Random(1);
+        for (int keyBytes : new int[]{16, 32}) {
+            ComponentHashIndex index = new ComponentHashIndex(keyBytes);
+            Map<ByteBuffer, Long> expected = new HashMap<>();
+            List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] key = new byte[keyBytes];
+                random.nextBytes(key);
+                if (i % 3 == 0) {
+                    for (int j = 0; j < Long.BYTES; j++) {
+                        key[j] = 0;
+                    }
+                }
+                keys.add(key);
+            }
+            for (int i = 0; i < 50000; i++) {
+                byte[] key = keys.get(random.nextInt(keys.size()));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        long value = random.nextLong();
+                        Assert.assertEquals(index.put(key, value), expected.put(ByteBuffer.wrap(key), value) == null);
+                        break;
+                    case 1:
+                        Assert.assertEquals(index.remove(key), expected.remove(ByteBuffer.wrap(key)) != null);
+                        break;
+                    default:
+                        Assert.assertEquals(index.get(key, MISSING), (long) expected.getOrDefault(ByteBuffer.wrap(key), MISSING));
+                }
+                Assert.assertEquals(index.size(), expected.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package gui.io.search;
+
+import org.debatetool.gui.io.search.InvertedIndex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+class InvertedIndexTest {
+    private InvertedIndex createIndex(){
+        InvertedIndex index = new InvertedIndex();
+        index.put(1, "Nuclear war causes extinction", "Impact", "Smith", "2019");
+        index.put(2, "Economic collapse makes nuclear war likely", "Link", "Jones", "2018");
+        index.put(3, "War war war", "Impact", "Brown", "2017");
+        index.put(4, "Trade deals promote peace", "Impact turn", "Smith", "2016");
+        return index;
+    }
+
+    @Test
+    public void termTest(){
+        InvertedIndex index = createIndex();
+        Assert.assertEquals(index.search("war", 10), new int[]{3, 1, 2});
+        Assert.assertEquals(index.search("WAR", 2), new int[]{3, 1});
+        Assert.assertEquals(index.search("war smith", 10), new int[]{1});
+        Assert.assertEquals(index.search("missing", 10), new int[0]);
+        Assert.assertEquals(index.search("", 10), new int[0]);
+    }
+
+    @Test
+    public void phraseTest(){
+        InvertedIndex index = createIndex();
+        Assert.assertEquals(index.search("\"nuclear war\"", 10), new int[]{1, 2});
+        Assert.assertEquals(index.search("\"war nuclear\"", 10), new int[0]);
+        Assert.assertEquals(index.search("\"war causes\" smith", 10), new int[]{1});
+        // the end of one field and the start of the next are not next to each other
+        Assert.assertEquals(index.search("\"extinction impact\"", 10), new int[0]);
+    }
+
+    @Test
+    public void prefixTest(){
+        InvertedIndex index = createIndex();
+        Assert.assertEquals(index.search("econ*", 10), new int[]{2});
+        Assert.assertEquals(index.search("impact*", 10).length, 3);
+    }
+
+    @Test
+    public void longPrefixTest(){
+        InvertedIndex index = new InvertedIndex();
+        for (int i = 0; i < 200; i++){
+            index.put(i, "term" + String.format("%03d", i));
+        }
+        // every word starting with the prefix counts, not only the first ones in alphabetical order
+        Assert.assertEquals(index.search("term*", 1000).length, 200);
+        Assert.assertEquals(index.search("term* term199", 10), new int[]{199});
+    }
+
+    @Test
+    public void updateTest(){
+        InvertedIndex index = createIndex();
+        index.put(3, "Peace now", "Impact", "Brown", "2017");
+        Assert.assertEquals(index.search("war", 10), new int[]{1, 2});
+        Assert.assertEquals(index.search("peace", 10).length, 2);
+        Assert.assertTrue(index.remove(1));
+        Assert.assertFalse(index.remove(1));
+        Assert.assertEquals(index.search("war", 10), new int[]{2});
+        Assert.assertEquals(index.size(), 3);
+    }
+}